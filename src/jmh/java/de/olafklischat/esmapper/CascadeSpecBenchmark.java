@@ -0,0 +1,94 @@
+package de.olafklischat.esmapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.olafklischat.esmapper.json.PropertyPath;
+
+/**
+ * Resolves the sub-specs for the references of an entity with a large collection
+ * of references, like the marshallers do, with a plain and with a compiled CascadeSpec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CascadeSpecBenchmark {
+
+    public static class Holder {
+        private List<Holder> refs;
+        private Holder owner;
+
+        public List<Holder> getRefs() {
+            return refs;
+        }
+
+        public void setRefs(List<Holder> refs) {
+            this.refs = refs;
+        }
+
+        public Holder getOwner() {
+            return owner;
+        }
+
+        public void setOwner(Holder owner) {
+            this.owner = owner;
+        }
+    }
+
+    @Param({"1000"})
+    public int references;
+
+    private CascadeSpec spec;
+    private CompiledCascadeSpec compiledSpec;
+    private List<PropertyPath> paths;
+
+    @Setup
+    public void setUp() {
+        spec = CascadeSpec.cascade()
+                .subCascade("owner", CascadeSpec.noCascade())
+                .subCascade("refs\\[.*?\\]", CascadeSpec.noCascade())
+                .subCascade("refs\\[0\\]", CascadeSpec.cascade());
+        compiledSpec = spec.compile();
+        Holder holder = new Holder();
+        PropertyPath root = new PropertyPath(new PropertyPath.Node(Holder.class), null);
+        PropertyPath refs = new PropertyPath(new PropertyPath.Node("refs", holder), root);
+        paths = new ArrayList<PropertyPath>(references + 1);
+        paths.add(new PropertyPath(new PropertyPath.Node("owner", holder), root));
+        List<Holder> list = new ArrayList<Holder>();
+        for (int i = 0; i < references; i++) {
+            paths.add(new PropertyPath(new PropertyPath.Node(i, list), refs));
+        }
+    }
+
+    @Benchmark
+    public void plain(Blackhole bh) {
+        for (PropertyPath path : paths) {
+            bh.consume(spec.getEffectiveSubSpecFor(path.getPathNotation()));
+        }
+    }
+
+    @Benchmark
+    public void compiled(Blackhole bh) {
+        for (PropertyPath path : paths) {
+            bh.consume(compiledSpec.getEffectiveSubSpecFor(path));
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package de.olafklischat.esmapper.json;
+
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads and writes all properties of a TestPerson-like bean, through
+ * {@link java.lang.reflect.Method#invoke(Object, Object...)} and through
+ * {@link PropertyAccessor}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyAccessorBenchmark {
+
+    public static class Person {
+        private String id;
+        private Long version;
+        private String name;
+        private int age;
+        private String comment;
+        private Person friend;
+
+        public String getId() {
+            return id;
+        }
+        public void setId(String id) {
+            this.id = id;
+        }
+        public Long getVersion() {
+            return version;
+        }
+        public void setVersion(Long version) {
+            this.version = version;
+        }
+        public String getName() {
+            return name;
+        }
+        public void setName(String name) {
+            this.name = name;
+        }
+        public int getAge() {
+            return age;
+        }
+        public void setAge(int age) {
+            this.age = age;
+        }
+        public String getComment() {
+            return comment;
+        }
+        public void setComment(String comment) {
+            this.comment = comment;
+        }
+        public Person getFriend() {
+            return friend;
+        }
+        public void setFriend(Person friend) {
+            this.friend = friend;
+        }
+    }
+
+    private Person person;
+    private List<PropertyDescriptor> descriptors;
+    private List<PropertyAccessor> accessors;
+    private List<Object> values;
+
+    @Setup
+    public void setUp() throws Exception {
+        person = new Person();
+        person.setId("4711");
+        person.setVersion(3L);
+        person.setName("paul");
+        person.setAge(65);
+        person.setComment("nice guy");
+        person.setFriend(new Person());
+        descriptors = new ArrayList<PropertyDescriptor>();
+        accessors = new ArrayList<PropertyAccessor>();
+        values = new ArrayList<Object>();
+        for (PropertyDescriptor pd : Introspector.getBeanInfo(Person.class).getPropertyDescriptors()) {
+            if (pd.getWriteMethod() != null) {
+                descriptors.add(pd);
+                accessors.add(PropertyAccessor.of(Person.class, pd));
+                values.add(pd.getReadMethod().invoke(person));
+            }
+        }
+    }
+
+    @Benchmark
+    public void reflectiveGet(Blackhole bh) throws Exception {
+        for (PropertyDescriptor pd : descriptors) {
+            bh.consume(pd.getReadMethod().invoke(person));
+        }
+    }
+
+    @Benchmark
+    public void accessorGet(Blackhole bh) throws Exception {
+        for (PropertyAccessor pa : accessors) {
+            bh.consume(pa.get(person));
+        }
+    }
+
+    @Benchmark
+    public void reflectiveSet() throws Exception {
+        for (int i = 0; i < descriptors.size(); i++) {
+            descriptors.get(i).getWriteMethod().invoke(person, values.get(i));
+        }
+    }
+
+    @Benchmark
+    public void accessorSet() throws Exception {
+        for (int i = 0; i < accessors.size(); i++) {
+            accessors.get(i).set(person, values.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package de.olafklischat.esmapper;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by bulk persist operations (see {@link EntityPersister#setBulkWrites(boolean)})
+ * if one or more of the entities couldn't be written. Contains one {@link Failure}
+ * per failed entity, in the order in which the entities were written. Entities that
+ * aren't listed here have been written successfully.
+ *
+ * @author olaf
+ */
+public class BulkPersistException extends RuntimeException {
+
+    private static final long serialVersionUID = -2389203560247163511L;
+
+    /**
+     * Failure of a single entity in a bulk persist operation.
+     */
+    public static class Failure {
+        private final Object entity;
+        private final RuntimeException cause;
+
+        public Failure(Object entity, RuntimeException cause) {
+            this.entity = entity;
+            this.cause = cause;
+        }
+
+        public Object getEntity() {
+            return entity;
+        }
+
+        /**
+         * @return a {@link VersionConflictException} if the entity was outdated, some other
+         *         exception otherwise
+         */
+        public RuntimeException getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return entity + ": " + cause.getLocalizedMessage();
+        }
+    }
+
+    private final List<Failure> failures;
+
+    public BulkPersistException(List<Failure> failures) {
+        super(failures.size() + " entities couldn't be persisted. First failure: " + failures.get(0));
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+}
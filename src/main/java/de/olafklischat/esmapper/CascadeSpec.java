@@ -6,10 +6,15 @@ import java.util.Deque;
 import java.util.LinkedList;
 import java.util.regex.Pattern;
 
+import javax.persistence.FetchType;
+
 import org.elasticsearch.common.collect.Tuple;
 
 import com.google.common.base.Objects;
 
+import de.olafklischat.esmapper.annotations.Fetch;
+import de.olafklischat.esmapper.json.PropertyPath;
+
 /**
  * Specifies if and how an {@link EntityPersister#load(de.olafklischat.esmapper.Entity)
  * load} or {@link EntityPersister#persist(de.olafklischat.esmapper.Entity) persist}
@@ -17,6 +22,9 @@ import com.google.common.base.Objects;
  * by that Entity. CascadeSpec is a recursive data structure, allowing you to
  * specify cascade/no-cascade policies for the referenced entities (and their
  * referenced entities, and so on) as well.
+ * <p>
+ * A CascadeSpec may also use the fetch plans declared with {@link Fetch}
+ * annotations on the entities' properties, see {@link #fetchPlan()}.
  * 
  * @author olaf
  */
@@ -24,6 +32,15 @@ public class CascadeSpec {
     
     private boolean defaultCascade;
     private final Deque<Tuple<Pattern, CascadeSpec>> subSpecsByPropPathPattern = new LinkedList<Tuple<Pattern,CascadeSpec>>();
+    private volatile CompiledCascadeSpec compiled;
+    private boolean fetchPlan = false;
+    //fetch plan mode: cascade policy for properties without a @Fetch annotation (null => defaultCascade),
+    //and number of levels that may still be cascaded into
+    private Boolean unannotatedCascade;
+    private int fetchDepth = Integer.MAX_VALUE;
+    //incremented by every modification of this spec, invalidates the compiled specs of it and of
+    //the specs it is a sub-spec of
+    private volatile int modifications;
     
     public CascadeSpec() {
         this(false);
@@ -32,6 +49,13 @@ public class CascadeSpec {
     public CascadeSpec(boolean cascade) {
         this.defaultCascade = cascade;
     }
+
+    CascadeSpec(boolean cascade, boolean fetchPlan, Boolean unannotatedCascade, int fetchDepth) {
+        this.defaultCascade = cascade;
+        this.fetchPlan = fetchPlan;
+        this.unannotatedCascade = unannotatedCascade;
+        this.fetchDepth = fetchDepth;
+    }
     
     public static CascadeSpec cascade(boolean cascade) {
         return new CascadeSpec(cascade);
@@ -45,6 +69,18 @@ public class CascadeSpec {
         return new CascadeSpec(false);
     }
 
+    /**
+     * CascadeSpec that cascades into the properties annotated with
+     * <code>@{@link Fetch}(FetchType.EAGER)</code>, observing their
+     * {@link Fetch#maxDepth() maximum depths}, and not into any others. Sub-specs may
+     * be added for overriding the annotations of particular properties.
+     */
+    public static CascadeSpec fetchPlan() {
+        CascadeSpec result = new CascadeSpec(false);
+        result.fetchPlan = true;
+        return result;
+    }
+
     /**
      * Cascade policy to be used by default, unless one was explicitly specified
      * for a property using {@link #subCascade(String, CascadeSpec)}
@@ -57,12 +93,65 @@ public class CascadeSpec {
 
     public void setCascade(boolean casecade) {
         this.defaultCascade = casecade;
+        modifications++;
+    }
+
+    public boolean isFetchPlan() {
+        return fetchPlan;
+    }
+
+    /**
+     * If true, properties for which no sub-spec was specified using
+     * {@link #subCascade(String, CascadeSpec)} are cascaded into as declared by their
+     * {@link Fetch} annotations. Properties without annotations are cascaded into
+     * according to {@link #isDefaultCascade()}. The sub-specs derived from the
+     * annotations are fetch plan specs as well. Explicitly specified sub-specs are used as they are.
+     * <p>
+     * The annotations can only be taken into account for property paths, not for
+     * {@link #getEffectiveSubSpecFor(String) path notations}.
+     * 
+     * @param fetchPlan
+     */
+    public void setFetchPlan(boolean fetchPlan) {
+        this.fetchPlan = fetchPlan;
+        modifications++;
+    }
+
+    Boolean getUnannotatedCascade() {
+        return unannotatedCascade;
+    }
+
+    int getFetchDepth() {
+        return fetchDepth;
     }
     
     public CascadeSpec subCascade(String propertyPathPattern, CascadeSpec ccs) {
         subSpecsByPropPathPattern.addFirst(tuple(Pattern.compile(propertyPathPattern), ccs));
+        modifications++;
         return this;
     }
+
+    Deque<Tuple<Pattern, CascadeSpec>> getSubSpecs() {
+        return subSpecsByPropPathPattern;
+    }
+
+    int getModifications() {
+        return modifications;
+    }
+
+    /**
+     * @return an immutable {@link CompiledCascadeSpec} that resolves sub-specs the
+     *         same way as this one. The result is cached until this CascadeSpec
+     *         or any of its (transitive) sub-specs is modified.
+     */
+    public CompiledCascadeSpec compile() {
+        CompiledCascadeSpec result = compiled;
+        if (result == null || !result.isUpToDate()) {
+            result = CompiledCascadeSpec.compile(this);
+            compiled = result;
+        }
+        return result;
+    }
     
     public CascadeSpec getSubSpecFor(String propertyPath) {
         for (Tuple<Pattern, CascadeSpec> patAndCcs : subSpecsByPropPathPattern) {
@@ -77,6 +166,29 @@ public class CascadeSpec {
         return Objects.firstNonNull(getSubSpecFor(propertyPath), CascadeSpec.cascade(this.isDefaultCascade()));
     }
 
+    public CascadeSpec getEffectiveSubSpecFor(PropertyPath propertyPath) {
+        if (!isFetchPlan()) {
+            return getEffectiveSubSpecFor(propertyPath.getPathNotation());
+        }
+        CascadeSpec result = getSubSpecFor(propertyPath.getPathNotation());
+        return result != null ? result : getFetchPlanSubSpecFor(propertyPath);
+    }
+
+    /**
+     * Derive the sub-spec for propertyPath from its {@link Fetch} annotation (if any).
+     */
+    CompiledCascadeSpec getFetchPlanSubSpecFor(PropertyPath propertyPath) {
+        Fetch fetch = FetchPlan.getFetch(propertyPath);
+        boolean unannotated = unannotatedCascade != null ? unannotatedCascade : defaultCascade;
+        boolean eager = fetch == null ? unannotated : fetch.value() == FetchType.EAGER;
+        int depth = fetch == null ? fetchDepth : Math.min(fetchDepth, fetch.maxDepth());
+        if (eager && depth > 0) {
+            return CompiledCascadeSpec.forFetchPlan(true, unannotated, depth == Integer.MAX_VALUE ? depth : depth - 1);
+        } else {
+            return CompiledCascadeSpec.forFetchPlan(false, unannotated, 0);
+        }
+    }
+
     /**
      * 
      * @param propertyName propertyName
@@ -0,0 +1,423 @@
+package de.olafklischat.esmapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.collect.Tuple;
+
+import de.olafklischat.esmapper.json.PropertyPath;
+
+/**
+ * Immutable, pre-processed form of a {@link CascadeSpec}, obtained via
+ * {@link CascadeSpec#compile()}. Resolves sub-specs with the same results as
+ * the CascadeSpec it was compiled from, but faster:
+ * <p>
+ * Sub-spec patterns that are literal property paths (like <code>homeTown</code> or
+ * <code>sisterCities\[0\]</code>) or literal paths followed by an arbitrary index
+ * (<code>sisterCities\[.*?\]</code>, <code>sisterCities\[.*\]</code>) are stored
+ * in a trie over path segments, which
+ * {@link #getEffectiveSubSpecFor(PropertyPath)} walks along the segments of the
+ * PropertyPath without building its path notation. Only other patterns are
+ * matched as regular expressions against the path notation, which is built only if
+ * there are any of those that could take precedence. The sub-specs and the default
+ * sub-specs are compiled too, so resolving a sub-spec of a spec without such patterns
+ * doesn't allocate anything.
+ *
+ * @author olaf
+ */
+public final class CompiledCascadeSpec extends CascadeSpec {
+
+    private static final int NONE = Integer.MAX_VALUE;
+    private static final String ANY_INDEX_LAZY = "\\[.*?\\]";
+    private static final String ANY_INDEX = "\\[.*\\]";
+
+    private static final CompiledCascadeSpec CASCADE = new CascadeSpec(true).compile();
+    private static final CompiledCascadeSpec NO_CASCADE = new CascadeSpec(false).compile();
+    //sub-specs derived from fetch plans, by cascade, unannotatedCascade and fetch depth (the last one for unlimited).
+    //Created eagerly so the class initialization publishes them safely.
+    private static final CompiledCascadeSpec[][][] fetchPlanSpecs = new CompiledCascadeSpec[2][2][17];
+    static {
+        for (int c = 0; c < 2; c++) {
+            for (int u = 0; u < 2; u++) {
+                for (int d = 0; d < 17; d++) {
+                    fetchPlanSpecs[c][u][d] = new CascadeSpec(c == 1, true, u == 1, d == 16 ? Integer.MAX_VALUE : d).compile();
+                }
+            }
+        }
+    }
+
+    //the CascadeSpecs this one was compiled from (the source and its transitive sub-specs),
+    //and their modification counts at the time
+    private final CascadeSpec[] sources;
+    private final int[] sourceModifications;
+    //the sub-specs' patterns and compiled specs, by priority (the first matching one is used)
+    private final Pattern[] patterns;
+    private final CompiledCascadeSpec[] subSpecs;
+    private final TrieNode trie = new TrieNode();
+    //priorities of the patterns that aren't in the trie, ascending
+    private final int[] regexRules;
+
+    private CompiledCascadeSpec(CascadeSpec source, CascadeSpec[] sources, int[] sourceModifications,
+            Map<CascadeSpec, CompiledCascadeSpec> compiled) {
+        super(source.isDefaultCascade(), source.isFetchPlan(), source.getUnannotatedCascade(), source.getFetchDepth());
+        this.sources = sources;
+        this.sourceModifications = sourceModifications;
+        compiled.put(source, this);
+        List<Tuple<Pattern, CascadeSpec>> rules = new ArrayList<Tuple<Pattern, CascadeSpec>>(source.getSubSpecs());
+        patterns = new Pattern[rules.size()];
+        subSpecs = new CompiledCascadeSpec[rules.size()];
+        List<Integer> regexRuleList = new ArrayList<Integer>();
+        for (int i = 0; i < rules.size(); i++) {
+            patterns[i] = rules.get(i).v1();
+            if (!addToTrie(patterns[i].pattern(), i)) {
+                regexRuleList.add(i);
+            }
+        }
+        regexRules = new int[regexRuleList.size()];
+        for (int i = 0; i < regexRules.length; i++) {
+            regexRules[i] = regexRuleList.get(i);
+        }
+        trie.freeze();
+        for (int i = 0; i < rules.size(); i++) {
+            CascadeSpec sub = rules.get(i).v2();
+            CompiledCascadeSpec c = compiled.get(sub);
+            subSpecs[i] = c != null ? c : compile(sub, sources, sourceModifications, compiled);
+        }
+    }
+
+    static CompiledCascadeSpec compile(CascadeSpec spec) {
+        if (spec instanceof CompiledCascadeSpec) {
+            return (CompiledCascadeSpec) spec;
+        }
+        //take the modification counts before reading the specs, so modifications made while
+        //compiling make the result outdated
+        Map<CascadeSpec, Integer> modifications = new IdentityHashMap<CascadeSpec, Integer>();
+        collectModifications(spec, modifications);
+        CascadeSpec[] sources = new CascadeSpec[modifications.size()];
+        int[] sourceModifications = new int[sources.length];
+        int i = 0;
+        for (Map.Entry<CascadeSpec, Integer> e : modifications.entrySet()) {
+            sources[i] = e.getKey();
+            sourceModifications[i] = e.getValue();
+            i++;
+        }
+        return compile(spec, sources, sourceModifications, new IdentityHashMap<CascadeSpec, CompiledCascadeSpec>());
+    }
+
+    private static CompiledCascadeSpec compile(CascadeSpec spec, CascadeSpec[] sources, int[] sourceModifications,
+            Map<CascadeSpec, CompiledCascadeSpec> compiled) {
+        if (spec instanceof CompiledCascadeSpec) {
+            return (CompiledCascadeSpec) spec;
+        }
+        return new CompiledCascadeSpec(spec, sources, sourceModifications, compiled);
+    }
+
+    private static void collectModifications(CascadeSpec spec, Map<CascadeSpec, Integer> modifications) {
+        if (spec instanceof CompiledCascadeSpec || modifications.containsKey(spec)) {
+            return;
+        }
+        modifications.put(spec, spec.getModifications());
+        for (Tuple<Pattern, CascadeSpec> rule : spec.getSubSpecs()) {
+            collectModifications(rule.v2(), modifications);
+        }
+    }
+
+    static CompiledCascadeSpec forFetchPlan(boolean cascade, boolean unannotatedCascade, int fetchDepth) {
+        int depthIndex = fetchDepth == Integer.MAX_VALUE ? 16 : fetchDepth;
+        if (depthIndex > 16) {
+            return new CascadeSpec(cascade, true, unannotatedCascade, fetchDepth).compile();
+        }
+        return fetchPlanSpecs[cascade ? 1 : 0][unannotatedCascade ? 1 : 0][depthIndex];
+    }
+
+    /**
+     * @return false if the CascadeSpec this one was compiled from or any of its
+     *         sub-specs has been modified since
+     */
+    boolean isUpToDate() {
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i].getModifications() != sourceModifications[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public CompiledCascadeSpec compile() {
+        return this;
+    }
+
+    @Override
+    public void setCascade(boolean casecade) {
+        throw new UnsupportedOperationException("compiled CascadeSpecs are immutable");
+    }
+
+    @Override
+    public void setFetchPlan(boolean fetchPlan) {
+        throw new UnsupportedOperationException("compiled CascadeSpecs are immutable");
+    }
+
+    @Override
+    public CascadeSpec subCascade(String propertyPathPattern, CascadeSpec ccs) {
+        throw new UnsupportedOperationException("compiled CascadeSpecs are immutable");
+    }
+
+    @Override
+    public CompiledCascadeSpec getSubSpecFor(String propertyPath) {
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].matcher(propertyPath).matches()) {
+                return subSpecs[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public CompiledCascadeSpec getEffectiveSubSpecFor(String propertyPath) {
+        CompiledCascadeSpec result = getSubSpecFor(propertyPath);
+        return result != null ? result : getDefaultSubSpec();
+    }
+
+    @Override
+    public CompiledCascadeSpec getEffectiveSubSpecFor(PropertyPath propertyPath) {
+        int segments = 0;
+        for (PropertyPath p = propertyPath; p != null; p = p.getTail()) {
+            if (!p.getHead().isRoot()) {
+                if (p.getHead().isMapValue() && !isPlainKey(p.getMapKey())) {
+                    //the key's notation isn't unambiguous, so the trie may not find everything that matches
+                    CompiledCascadeSpec result = getSubSpecFor(propertyPath.getPathNotation());
+                    return result != null ? result : getUnspecifiedSubSpecFor(propertyPath);
+                }
+                segments++;
+            }
+        }
+        int best = NONE;
+        if (segments > 0) {
+            boolean lastIsIndex = isIndex(propertyPath);
+            TrieNode node = trie;
+            PropertyPath next = segmentAt(propertyPath, segments, 0);
+            for (int depth = 0; node != null; depth++) {
+                if (depth == segments) {
+                    best = Math.min(best, node.literalRule);
+                    break;
+                }
+                if (lastIsIndex && node.anyIndexRule < best && isIndex(next)) {
+                    best = node.anyIndexRule;
+                }
+                node = node.child(next);
+                if (depth + 1 < segments) {
+                    next = segmentAt(propertyPath, segments, depth + 1);
+                }
+            }
+        }
+        String notation = null;
+        for (int rule : regexRules) {
+            if (rule >= best) {
+                break;
+            }
+            if (notation == null) {
+                notation = propertyPath.getPathNotation();
+            }
+            if (patterns[rule].matcher(notation).matches()) {
+                best = rule;
+                break;
+            }
+        }
+        return best == NONE ? getUnspecifiedSubSpecFor(propertyPath) : subSpecs[best];
+    }
+
+    private CompiledCascadeSpec getDefaultSubSpec() {
+        return isDefaultCascade() ? CASCADE : NO_CASCADE;
+    }
+
+    private CompiledCascadeSpec getUnspecifiedSubSpecFor(PropertyPath propertyPath) {
+        return isFetchPlan() ? getFetchPlanSubSpecFor(propertyPath) : getDefaultSubSpec();
+    }
+
+    /**
+     * @return the index'th (from the root) non-root segment of a path with the given number of them
+     */
+    private static PropertyPath segmentAt(PropertyPath path, int segments, int index) {
+        PropertyPath p = path;
+        for (int i = segments - 1; i > index; i--) {
+            p = p.getTail();
+        }
+        return p;
+    }
+
+    private static boolean isIndex(PropertyPath segment) {
+        return segment.getHead().isArrayElement() || segment.getHead().isMapValue();
+    }
+
+    private static boolean isPlainKey(String mapKey) {
+        return mapKey.indexOf('[') < 0 && mapKey.indexOf(']') < 0 && mapKey.indexOf('.') < 0;
+    }
+
+    /**
+     * Add the regex to the trie if it is a literal path or a literal path followed by
+     * an arbitrary index.
+     *
+     * @return false if it isn't
+     */
+    private boolean addToTrie(String regex, int priority) {
+        boolean anyIndex = false;
+        if (regex.endsWith(ANY_INDEX_LAZY)) {
+            regex = regex.substring(0, regex.length() - ANY_INDEX_LAZY.length());
+            anyIndex = true;
+        } else if (regex.endsWith(ANY_INDEX)) {
+            regex = regex.substring(0, regex.length() - ANY_INDEX.length());
+            anyIndex = true;
+        }
+        String literal = unescapeLiteral(regex);
+        if (literal == null) {
+            return false;
+        }
+        List<String> segments = parseNotation(literal);
+        if (segments == null) {
+            return false;
+        }
+        TrieNode node = trie;
+        for (String seg : segments) {
+            node = node.getOrAddChild(seg);
+        }
+        if (anyIndex) {
+            node.anyIndexRule = Math.min(node.anyIndexRule, priority);
+        } else {
+            node.literalRule = Math.min(node.literalRule, priority);
+        }
+        return true;
+    }
+
+    /**
+     * @return the string matched by regex if it doesn't contain any metacharacters (other
+     *         than escaped ones), null otherwise
+     */
+    private static String unescapeLiteral(String regex) {
+        StringBuilder result = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (++i == regex.length() || Character.isLetterOrDigit(regex.charAt(i))) {
+                    return null;
+                }
+                result.append(regex.charAt(i));
+            } else if (".^$|?*+()[]{}".indexOf(c) >= 0) {
+                return null;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Split a path notation (see {@link PropertyPath#getPathNotation()}) into segments,
+     * which are property names or bracketed indices/map keys (like <code>[0]</code>).
+     *
+     * @return the segments, or null if notation isn't well-formed
+     */
+    private static List<String> parseNotation(String notation) {
+        List<String> result = new ArrayList<String>();
+        int i = 0;
+        while (i < notation.length()) {
+            char c = notation.charAt(i);
+            if (c == '[') {
+                int end = notation.indexOf(']', i);
+                if (end < 0) {
+                    return null;
+                }
+                result.add(notation.substring(i, end + 1));
+                i = end + 1;
+            } else {
+                if (c == '.') {
+                    if (result.isEmpty()) {
+                        return null;
+                    }
+                    i++;
+                } else if (!result.isEmpty()) {
+                    return null;
+                }
+                int end = i;
+                while (end < notation.length() && notation.charAt(end) != '.' && notation.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i) {
+                    return null;
+                }
+                result.add(notation.substring(i, end));
+                i = end;
+            }
+        }
+        return result;
+    }
+
+    private static class TrieNode {
+        int literalRule = NONE;
+        int anyIndexRule = NONE;
+        private final Map<String, TrieNode> propertyChildren = new HashMap<String, TrieNode>();
+        //keyed by the text between the brackets
+        private final Map<String, TrieNode> indexChildren = new HashMap<String, TrieNode>();
+        //the index children whose keys are non-negative integers, for looking up array indices
+        private int[] arrayIndices = new int[0];
+        private TrieNode[] arrayIndexChildren = new TrieNode[0];
+
+        TrieNode getOrAddChild(String segment) {
+            Map<String, TrieNode> children = propertyChildren;
+            if (segment.startsWith("[")) {
+                children = indexChildren;
+                segment = segment.substring(1, segment.length() - 1);
+            }
+            TrieNode result = children.get(segment);
+            if (result == null) {
+                result = new TrieNode();
+                children.put(segment, result);
+            }
+            return result;
+        }
+
+        void freeze() {
+            List<Integer> ints = new ArrayList<Integer>();
+            for (String key : indexChildren.keySet()) {
+                if (key.matches("0|[1-9][0-9]{0,8}")) {
+                    ints.add(Integer.parseInt(key));
+                }
+            }
+            arrayIndices = new int[ints.size()];
+            for (int i = 0; i < arrayIndices.length; i++) {
+                arrayIndices[i] = ints.get(i);
+            }
+            Arrays.sort(arrayIndices);
+            arrayIndexChildren = new TrieNode[arrayIndices.length];
+            for (int i = 0; i < arrayIndices.length; i++) {
+                arrayIndexChildren[i] = indexChildren.get(Integer.toString(arrayIndices[i]));
+            }
+            for (TrieNode child : propertyChildren.values()) {
+                child.freeze();
+            }
+            for (TrieNode child : indexChildren.values()) {
+                child.freeze();
+            }
+        }
+
+        TrieNode child(PropertyPath segment) {
+            switch (segment.getHead().getType()) {
+            case PROPERTY:
+                return propertyChildren.get(segment.getPropDescriptor().getName());
+            case ARRAY_ELEMENT:
+                int i = Arrays.binarySearch(arrayIndices, segment.getArrayIndex());
+                return i < 0 ? null : arrayIndexChildren[i];
+            case MAP_VALUE:
+                return indexChildren.get(segment.getMapKey());
+            default:
+                throw new IllegalStateException("shouldn't happen");
+            }
+        }
+    }
+
+}
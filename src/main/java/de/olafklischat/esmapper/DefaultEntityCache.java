@@ -0,0 +1,104 @@
+package de.olafklischat.esmapper;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.index.get.GetResult;
+
+/**
+ * {@link EntityCache} that holds at most a given number of documents, each
+ * for at most a given time after it was stored. The latter bounds the staleness
+ * of documents that are modified by others than the EntityPersister(s) using
+ * the cache.
+ *
+ * @author olaf
+ */
+public class DefaultEntityCache implements EntityCache {
+
+    private final Cache<String, GetResponse> cache;
+    private final boolean cacheNotFound;
+
+    /**
+     * @param maximumSize
+     *            maximum number of documents in the cache
+     * @param timeToLive
+     *            time after which a stored document expires
+     * @param cacheNotFound
+     *            whether to store responses of non-existing documents as well
+     */
+    public DefaultEntityCache(long maximumSize, long timeToLive, TimeUnit unit, boolean cacheNotFound) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive, unit)
+                .recordStats()
+                .build();
+        this.cacheNotFound = cacheNotFound;
+    }
+
+    public boolean isCacheNotFound() {
+        return cacheNotFound;
+    }
+
+    @Override
+    public GetResponse get(String id) {
+        return cache.getIfPresent(id);
+    }
+
+    @Override
+    public void put(GetResponse res) {
+        if (!res.isExists() && !cacheNotFound) {
+            return;
+        }
+        res = detach(res);
+        ConcurrentMap<String, GetResponse> map = cache.asMap();
+        while (true) {
+            GetResponse prev = map.putIfAbsent(res.getId(), res);
+            if (prev == null) {
+                return;
+            }
+            //a read that completes after a concurrent write may deliver an older version,
+            //and a read that completes after a concurrent create may not find the document at all
+            if (!res.isExists() || (prev.isExists() && prev.getVersion() > res.getVersion())) {
+                return;
+            }
+            if (map.replace(res.getId(), prev, res)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copy of res with an uncompressed source, so concurrent readers of the
+     * cached response don't race for lazily uncompressing it.
+     */
+    private static GetResponse detach(GetResponse res) {
+        return new GetResponse(new GetResult(res.getIndex(), res.getType(), res.getId(), res.getVersion(),
+                res.isExists(), res.isExists() ? res.getSourceAsBytesRef() : null, null));
+    }
+
+    @Override
+    public void invalidate(String id) {
+        cache.invalidate(id);
+    }
+
+    @Override
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+}
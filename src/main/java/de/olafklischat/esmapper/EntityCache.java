@@ -0,0 +1,38 @@
+package de.olafklischat.esmapper;
+
+import org.elasticsearch.action.get.GetResponse;
+
+/**
+ * Second-level cache of entity documents, shared by all the loads of an
+ * {@link EntityPersister} (see {@link EntityPersister#setEntityCache(EntityCache)}).
+ * <p>
+ * The cache stores the documents as they were read from ES (source and
+ * version), keyed by id, rather than entity instances, so every load
+ * unmarshals a fresh instance from the cached document, and callers can't
+ * modify each other's (or the cache's) state. Responses of non-existing
+ * documents may be stored as well (negative caching).
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @author olaf
+ */
+public interface EntityCache {
+
+    /**
+     * @return the cached response for the document with the given id, or null
+     *         if there is none
+     */
+    GetResponse get(String id);
+
+    /**
+     * Store res, which may be the response of a non-existing document. Implementations
+     * may decide not to store it, and shouldn't replace a response of a higher
+     * version of the document with it.
+     */
+    void put(GetResponse res);
+
+    void invalidate(String id);
+
+    void clear();
+
+}
@@ -0,0 +1,29 @@
+package de.olafklischat.esmapper;
+
+import de.olafklischat.esmapper.json.BeanCodec;
+
+/**
+ * {@link BeanCodec} of an entity class that also names the entity's
+ * metadata properties, so {@link EntityIntrospector} needn't look for them.
+ * Generated by {@link de.olafklischat.esmapper.processor.EntityCodecProcessor}.
+ *
+ * @author olaf
+ */
+public interface EntityCodec<T> extends BeanCodec<T> {
+
+    /**
+     * @return name of the id property, null if there is none
+     */
+    String getIdProperty();
+
+    /**
+     * @return name of the version property, null if there is none
+     */
+    String getVersionProperty();
+
+    /**
+     * @return name of the loaded flag property, null if there is none
+     */
+    String getLoadedProperty();
+
+}
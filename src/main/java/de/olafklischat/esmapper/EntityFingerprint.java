@@ -0,0 +1,134 @@
+package de.olafklischat.esmapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compact fingerprint (128 bit hashes) of an entity's JSON document as it
+ * is stored in ES at a given version. Contains a hash of the whole document and/or
+ * hashes of each of its top-level properties. Used by EntityPersister for dirty checking
+ * (see {@link EntityPersister#setDirtyChecking(boolean)}) and partial updates
+ * (see {@link EntityPersister#setPartialUpdates(boolean)}).
+ *
+ * @author olaf
+ */
+class EntityFingerprint {
+
+    private final Long version;
+    private final Hash documentHash;  //null if not recorded
+    private final Map<String, Hash> propertyHashes;  //null if not recorded
+
+    private EntityFingerprint(Long version, Hash documentHash, Map<String, Hash> propertyHashes) {
+        this.version = version;
+        this.documentHash = documentHash;
+        this.propertyHashes = propertyHashes;
+    }
+
+    public static EntityFingerprint of(Long version, BytesReference json, boolean withPropertyHashes) {
+        BytesArray arr = json.toBytesArray();
+        Hash documentHash = Hash.of(arr.array(), arr.arrayOffset(), arr.length());
+        Map<String, Hash> propertyHashes = null;
+        if (withPropertyHashes) {
+            propertyHashes = hashProperties(new JsonParser().parse(json.toUtf8()).getAsJsonObject());
+        }
+        return new EntityFingerprint(version, documentHash, propertyHashes);
+    }
+
+    /**
+     * Fingerprint with property hashes only.
+     */
+    public static EntityFingerprint of(Long version, JsonObject json) {
+        return new EntityFingerprint(version, null, hashProperties(json));
+    }
+
+    private static Map<String, Hash> hashProperties(JsonObject json) {
+        Map<String, Hash> result = new HashMap<String, Hash>();
+        for (Map.Entry<String, JsonElement> en : json.entrySet()) {
+            byte[] bytes = en.getValue().toString().getBytes(StandardCharsets.UTF_8);
+            result.put(en.getKey(), Hash.of(bytes, 0, bytes.length));
+        }
+        return result;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public EntityFingerprint withVersion(Long version) {
+        return new EntityFingerprint(version, documentHash, propertyHashes);
+    }
+
+    public boolean hasPropertyHashes() {
+        return propertyHashes != null;
+    }
+
+    /**
+     * @return true if other has the same version and document hash as this
+     */
+    public boolean matches(EntityFingerprint other) {
+        return other != null && sameVersion(other) &&
+                documentHash != null && documentHash.equals(other.documentHash);
+    }
+
+    public boolean sameVersion(EntityFingerprint other) {
+        return version == null ? other.version == null : version.equals(other.version);
+    }
+
+    /**
+     * Determine the top-level properties of json (whose fingerprint this is) that
+     * differ from the ones recorded in previous.
+     *
+     * @return the changed properties, or null if there are properties in previous that
+     *         no longer exist in json. Both fingerprints must have property hashes.
+     */
+    public JsonObject getChangedProperties(JsonObject json, EntityFingerprint previous) {
+        if (!propertyHashes.keySet().containsAll(previous.propertyHashes.keySet())) {
+            return null;
+        }
+        JsonObject result = new JsonObject();
+        for (Map.Entry<String, JsonElement> en : json.entrySet()) {
+            if (!propertyHashes.get(en.getKey()).equals(previous.propertyHashes.get(en.getKey()))) {
+                result.add(en.getKey(), en.getValue());
+            }
+        }
+        return result;
+    }
+
+    private static class Hash {
+        private final long h1, h2;
+
+        private Hash(long h1, long h2) {
+            this.h1 = h1;
+            this.h2 = h2;
+        }
+
+        public static Hash of(byte[] bytes, int offset, int length) {
+            MurmurHash3.Hash128 hash = MurmurHash3.hash128(bytes, offset, length, 0, new MurmurHash3.Hash128());
+            return new Hash(hash.h1, hash.h2);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) h1;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Hash)) {
+                return false;
+            }
+            Hash other = (Hash) obj;
+            return h1 == other.h1 && h2 == other.h2;
+        }
+    }
+
+}
@@ -4,14 +4,15 @@ import java.beans.BeanInfo;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.lang.annotation.Annotation;
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.reflect.Method;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.Version;
 
 import de.olafklischat.esmapper.annotations.LoadedFlag;
+import de.olafklischat.esmapper.json.BeanCodec;
+import de.olafklischat.esmapper.json.PropertyAccessor;
 
 /**
  * Introspector class that may be used to learn about persistence-related
@@ -24,40 +25,68 @@ import de.olafklischat.esmapper.annotations.LoadedFlag;
  */
 public class EntityIntrospector {
     
-    //TODO: consider size restriction (LRU)
-    private static final Map<Class<?>, Accessors> accessorsCache = new HashMap<Class<?>, Accessors>();
+    //ClassValues don't keep the classes from being unloaded, and lookups don't lock
+    private static final ClassValue<Accessors> accessorsCache = new ClassValue<Accessors>() {
+        @Override
+        protected Accessors computeValue(Class<?> cl) {
+            return new Accessors(cl);
+        }
+    };
+
+    private static final ClassValue<Boolean> isEntityCache = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> cl) {
+            return null != cl.getAnnotation(Entity.class);
+        }
+    };
 
     private static class Accessors {
         public final Accessor idAccessor, versionAccessor, loadedAccessor;
 
         public Accessors(Class<?> cl) {
-            idAccessor = getAccessor(cl, Id.class, "id");
+            BeanCodec<Object> codec = PropertyAccessor.getCodec(cl);
+            if (codec instanceof EntityCodec) {
+                EntityCodec<?> ec = (EntityCodec<?>) codec;
+                idAccessor = getAccessor(cl, ec.getIdProperty());
+                versionAccessor = getAccessor(cl, ec.getVersionProperty());
+                loadedAccessor = getAccessor(cl, ec.getLoadedProperty());
+            } else {
+                idAccessor = getAccessor(cl, Id.class, "id");
+                versionAccessor = getAccessor(cl, Version.class, "version");
+                loadedAccessor = getAccessor(cl, LoadedFlag.class, "loaded");
+            }
             if (null == idAccessor || idAccessor.getType() != String.class || ! idAccessor.isReadable() || ! idAccessor.isWritable()) {
                 throw new IllegalStateException("entity " + cl + ": r/w string id property required");
             }
-            versionAccessor = getAccessor(cl, Version.class, "version");
             if (null != versionAccessor && ! (Long.class.isAssignableFrom(versionAccessor.getType()) && versionAccessor.isReadable() && versionAccessor.isWritable())) {
                 throw new IllegalStateException("entity " + cl + ": version property present, but not long and r/w");
             }
-            loadedAccessor = getAccessor(cl, LoadedFlag.class, "loaded");
             if (null != loadedAccessor && ! (Boolean.TYPE == loadedAccessor.getType() && loadedAccessor.isReadable() && loadedAccessor.isWritable())) {
                 throw new IllegalStateException("entity " + cl + ": loaded property present, but not boolean and r/w");
             }
         }
         
+        private Accessor getAccessor(Class<?> cl, String name) {
+            if (name == null) {
+                return null;
+            }
+            PropertyAccessor pa = PropertyAccessor.of(cl, name);
+            return pa == null ? null : new Accessor(pa);
+        }
+
         private Accessor getAccessor(Class<?> cl, Class<? extends Annotation> ann, String name) {
             try {
                 BeanInfo bi = Introspector.getBeanInfo(cl);
                 PropertyDescriptor nameCandidate = null;
                 for (PropertyDescriptor pd: bi.getPropertyDescriptors()) {
                     if (null != pd.getReadMethod().getAnnotation(ann)) {
-                        return new Accessor(pd);
+                        return new Accessor(PropertyAccessor.of(cl, pd));
                     } else if (name.equals(pd.getName())) {
                         nameCandidate = pd;
                     }
                 }
                 if (null != nameCandidate) {
-                    return new Accessor(nameCandidate);
+                    return new Accessor(PropertyAccessor.of(cl, nameCandidate));
                 } else {
                     return null;
                 }
@@ -74,32 +103,36 @@ public class EntityIntrospector {
     }
     
     private static class Accessor {
+        private final PropertyAccessor pa;
         private final PropertyDescriptor pd;
-        public Accessor(PropertyDescriptor pd) {
-            this.pd = pd;
+        public Accessor(PropertyAccessor pa) {
+            this.pa = pa;
+            this.pd = pa.getPropDescriptor();
         }
         public boolean isReadable() {
-            return null != pd.getReadMethod();
+            return pa.isReadable();
         }
         public boolean isWritable() {
-            return null != pd.getWriteMethod();
+            return pa.isWritable();
         }
         public Class<?> getType() {
-            return pd.getPropertyType();
+            return pa.getType();
         }
         public String getName() {
-            return pd.getName();
+            return pa.getName();
         }
         public Object get(Object entity) {
+            entity = LazyReference.unwrap(entity);
             try {
-                return pd.getReadMethod().invoke(entity);
+                return pa.get(entity);
             } catch (Exception e) {
                 throw new IllegalStateException("error getting " + pd.getName() + " of entity " + entity + ": " + e.getLocalizedMessage(), e);
             }
         }
         public void set(Object entity, Object value) {
+            entity = LazyReference.unwrap(entity);
             try {
-                pd.getWriteMethod().invoke(entity, value);
+                pa.set(entity, value);
             } catch (Exception e) {
                 throw new IllegalStateException("error setting " + pd.getName() + " of entity " + entity + " to " + value + ": " + e.getLocalizedMessage(), e);
             }
@@ -107,23 +140,15 @@ public class EntityIntrospector {
     }
     
     private static Accessors getAccessors(Object entity) {
-        Class<?> cl = entity.getClass();
-        synchronized (accessorsCache) {
-            Accessors ms = accessorsCache.get(cl);
-            if (ms == null) {
-                ms = new Accessors(cl);
-                accessorsCache.put(cl, ms);
-            }
-            return ms;
-        }
+        return accessorsCache.get(LazyReference.unwrap(entity).getClass());
     }
 
     public static boolean isEntity(Object obj) {
-        return null != obj.getClass().getAnnotation(Entity.class);
+        return isEntityCache.get(LazyReference.unwrap(obj).getClass());
     }
     
     public static boolean isEntity(Class<?> cls) {
-        return null != cls.getAnnotation(Entity.class);
+        return isEntityCache.get(cls);
     }
 
     /**
@@ -182,5 +207,14 @@ public class EntityIntrospector {
     public static boolean isMetadataProperty(Object entity, String propName) {
         return getAccessors(entity).isAccessor(propName);
     }
+
+    /**
+     * @return true if method is (an interface method implemented by) the read
+     *         method of entity's id property
+     */
+    static boolean isIdReadMethod(Object entity, Method method) {
+        Method rm = getAccessors(entity).idAccessor.pd.getReadMethod();
+        return rm.getName().equals(method.getName()) && method.getParameterTypes().length == 0;
+    }
     
 }
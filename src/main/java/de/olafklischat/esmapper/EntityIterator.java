@@ -0,0 +1,84 @@
+package de.olafklischat.esmapper;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Iterator over the entities matching a query, as returned by
+ * {@link EntityPersister#stream(org.elasticsearch.index.query.QueryBuilder, Class, CascadeSpec)}.
+ * The hits are pulled from ES page by page with a scan/scroll search as the
+ * iterator advances, so only the current page is held in memory.
+ * <p>
+ * Iterators should be closed if they aren't iterated to the end, which
+ * releases the scroll in ES. Iterators are not thread-safe.
+ *
+ * @author olaf
+ */
+public class EntityIterator<T> implements Iterator<T>, Closeable {
+
+    static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private final EntityPersister persister;
+    private final Class<T> classOfT;
+    private final CascadeSpec cascadeSpec;
+    private String scrollId;  //null when closed or exhausted
+    private Iterator<T> page = Collections.<T>emptyList().iterator();
+
+    EntityIterator(EntityPersister persister, Class<T> classOfT, CascadeSpec cascadeSpec, String scrollId) {
+        this.persister = persister;
+        this.classOfT = classOfT;
+        this.cascadeSpec = cascadeSpec;
+        this.scrollId = scrollId;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext()) {
+            if (scrollId == null) {
+                return false;
+            }
+            SearchResponse res = persister.getEsClient().prepareSearchScroll(scrollId)
+                    .setScroll(SCROLL_KEEP_ALIVE).execute().actionGet();
+            scrollId = res.getScrollId();
+            if (res.getHits().getHits().length == 0) {
+                close();
+                return false;
+            }
+            page = persister.loadHits(res.getHits().getHits(), classOfT, cascadeSpec).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Release the scroll. Entities of the current page that haven't been
+     * returned yet are still returned.
+     */
+    @Override
+    public void close() {
+        if (scrollId == null) {
+            return;
+        }
+        String id = scrollId;
+        scrollId = null;
+        persister.getEsClient().prepareClearScroll().addScrollId(id).execute().actionGet();
+    }
+
+}
@@ -1,43 +1,110 @@
 package de.olafklischat.esmapper;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.PlainListenableActionFuture;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.IdentityHashSet;
 import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.MapMaker;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
+import de.olafklischat.esmapper.annotations.Fetch;
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonMarshaller;
 import de.olafklischat.esmapper.json.JsonMarshallingFilter;
-import de.olafklischat.esmapper.json.JsonUnmarshaller;
+import de.olafklischat.esmapper.json.JsonStreamUnmarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
+import de.olafklischat.esmapper.json.TypedJsonMarshaller;
 
 public class EntityPersister {
     
     private static final Logger log = Logger.getLogger(EntityPersister.class);
+    //returned by Persister.claimSubEntity, compared by identity
+    private static final String ALREADY_CLAIMED = new String("already claimed");
 
     private Client esClient;
     private String indexName;
+    private boolean bulkWrites = false;
+    private int maxBulkActions = 1000;
+    private int maxMultiGetSize = 1000;
+    private int scrollPageSize = 100;
+    private int maxLoadDepth = Integer.MAX_VALUE;
+    private int maxLoadedEntities = Integer.MAX_VALUE;
+    private boolean dirtyChecking = false;
+    private boolean partialUpdates = false;
+    private boolean lazyLoading = false;
+    private volatile EntityCache entityCache;
+    private IdGenerator idGenerator = new TimeBasedIdGenerator();
+    private Executor cascadeExecutor;  //null => cascade sequentially
+    private final ConcurrentMap<String, Class<?>> entityClassesByType = new ConcurrentHashMap<String, Class<?>>();
+    private final Map<Class<?>, IdGenerator> idGeneratorsByClass = new ConcurrentHashMap<Class<?>, IdGenerator>();
+    //fingerprints of the entities loaded or persisted by us, if dirtyChecking or partialUpdates. Weak identity keys.
+    private final Map<Object, EntityFingerprint> fingerprints = new MapMaker().weakKeys().makeMap();
+    //entities filled by projection loads that haven't been loaded fully since. Weak identity keys.
+    private final Map<Object, Boolean> partiallyLoaded = new MapMaker().weakKeys().makeMap();
 
     public EntityPersister() {
     }
@@ -69,6 +136,289 @@ public class EntityPersister {
         return indexName;
     }
 
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    /**
+     * Set the generator for the ids of new entities that don't have a generator
+     * of their own (see {@link #setIdGenerator(Class, IdGenerator)}). Defaults
+     * to a {@link TimeBasedIdGenerator}. Use a {@link UuidIdGenerator} to get
+     * the UUID ids of earlier versions.
+     * 
+     * @param idGenerator
+     */
+    public void setIdGenerator(IdGenerator idGenerator) {
+        if (idGenerator == null) {
+            throw new IllegalArgumentException("idGenerator must not be null");
+        }
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Set the id generator for new entities of class entityClass or its subclasses.
+     * Its ids must not overlap with the ones of any other generator (see {@link IdGenerator}).
+     * 
+     * @param entityClass
+     * @param idGenerator null to remove the class's generator again
+     */
+    public void setIdGenerator(Class<?> entityClass, IdGenerator idGenerator) {
+        if (idGenerator == null) {
+            idGeneratorsByClass.remove(entityClass);
+        } else {
+            idGeneratorsByClass.put(entityClass, idGenerator);
+        }
+    }
+
+    /**
+     * @return the id generator responsible for new entities of class entityClass
+     */
+    public IdGenerator getIdGenerator(Class<?> entityClass) {
+        if (!idGeneratorsByClass.isEmpty()) {
+            for (Class<?> c = entityClass; c != null; c = c.getSuperclass()) {
+                IdGenerator result = idGeneratorsByClass.get(c);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return idGenerator;
+    }
+
+    public Executor getCascadeExecutor() {
+        return cascadeExecutor;
+    }
+
+    /**
+     * If set, cascading persist operations persist the sub-entities they
+     * cascade into concurrently on this executor rather than one after another
+     * in the calling thread. The operation returns when all the sub-entities have
+     * been written. Sub-entities are assigned their ids in the calling thread
+     * before they're handed to the executor, so the referencing entity can be
+     * written without waiting for them; if one of them fails, the other entities of the
+     * operation may have been written already.
+     * <p>
+     * The executor's tasks never wait for each other, so executors with bounded
+     * thread pools are fine. Tasks that the executor rejects are run in the calling
+     * thread.
+     * 
+     * @param cascadeExecutor null (the default) to cascade sequentially
+     */
+    public void setCascadeExecutor(Executor cascadeExecutor) {
+        this.cascadeExecutor = cascadeExecutor;
+    }
+
+    public int getMaxMultiGetSize() {
+        return maxMultiGetSize;
+    }
+
+    /**
+     * Maximum number of entities to read from ES in a single multi-get request
+     * when loading cascaded references. Defaults to 1000.
+     * 
+     * @param maxMultiGetSize
+     */
+    public void setMaxMultiGetSize(int maxMultiGetSize) {
+        if (maxMultiGetSize < 1) {
+            throw new IllegalArgumentException("maxMultiGetSize must be positive: " + maxMultiGetSize);
+        }
+        this.maxMultiGetSize = maxMultiGetSize;
+    }
+
+    public int getScrollPageSize() {
+        return scrollPageSize;
+    }
+
+    /**
+     * Number of hits to fetch per shard with each scroll request of
+     * {@link #stream(QueryBuilder, Class, CascadeSpec)}. Defaults to 100.
+     * 
+     * @param scrollPageSize
+     */
+    public void setScrollPageSize(int scrollPageSize) {
+        if (scrollPageSize < 1) {
+            throw new IllegalArgumentException("scrollPageSize must be positive: " + scrollPageSize);
+        }
+        this.scrollPageSize = scrollPageSize;
+    }
+
+    public int getMaxLoadDepth() {
+        return maxLoadDepth;
+    }
+
+    /**
+     * Maximum number of levels of references that a load operation cascades
+     * into, regardless of the CascadeSpec and {@link Fetch} annotations. References
+     * beyond that are left as stub (non-loaded) entities, or lazy-loading proxies
+     * (see {@link #setLazyLoading(boolean)}). Defaults to unlimited.
+     * 
+     * @param maxLoadDepth
+     */
+    public void setMaxLoadDepth(int maxLoadDepth) {
+        if (maxLoadDepth < 0) {
+            throw new IllegalArgumentException("maxLoadDepth must not be negative: " + maxLoadDepth);
+        }
+        this.maxLoadDepth = maxLoadDepth;
+    }
+
+    public int getMaxLoadedEntities() {
+        return maxLoadedEntities;
+    }
+
+    /**
+     * Maximum number of referenced entities that a single load operation cascades into
+     * (not counting the entities that are loaded explicitly), regardless of the
+     * CascadeSpec and {@link Fetch} annotations. Any further references are
+     * left as stub (non-loaded) entities, or lazy-loading proxies (see
+     * {@link #setLazyLoading(boolean)}). Defaults to unlimited.
+     * 
+     * @param maxLoadedEntities
+     */
+    public void setMaxLoadedEntities(int maxLoadedEntities) {
+        if (maxLoadedEntities < 0) {
+            throw new IllegalArgumentException("maxLoadedEntities must not be negative: " + maxLoadedEntities);
+        }
+        this.maxLoadedEntities = maxLoadedEntities;
+    }
+
+    public boolean isBulkWrites() {
+        return bulkWrites;
+    }
+
+    /**
+     * If true, persist operations don't write each entity (including the
+     * cascaded ones) with a separate index request, but collect all the index
+     * requests of the operation and send them to ES in as few bulk requests as
+     * possible (see {@link #setMaxBulkActions(int)}) at the end of the operation.
+     * <p>
+     * Ids, versions and loaded flags of the persisted entities are updated
+     * when the bulk requests have completed. Failures of individual entities
+     * don't abort the writing of the others; they're reported collectively
+     * at the end via a {@link BulkPersistException}.
+     * 
+     * @param bulkWrites
+     */
+    public void setBulkWrites(boolean bulkWrites) {
+        this.bulkWrites = bulkWrites;
+    }
+
+    public int getMaxBulkActions() {
+        return maxBulkActions;
+    }
+
+    /**
+     * Maximum number of entities to send to ES in a single bulk request
+     * if {@link #setBulkWrites(boolean) bulk writes} are enabled. Larger
+     * persist operations are split into multiple bulk requests.
+     * 
+     * @param maxBulkActions
+     */
+    public void setMaxBulkActions(int maxBulkActions) {
+        if (maxBulkActions < 1) {
+            throw new IllegalArgumentException("maxBulkActions must be positive: " + maxBulkActions);
+        }
+        this.maxBulkActions = maxBulkActions;
+    }
+
+    public boolean isDirtyChecking() {
+        return dirtyChecking;
+    }
+
+    /**
+     * If true, remember a fingerprint of the JSON document of every entity that's
+     * loaded or persisted, and don't write entities reached by a cascading
+     * persist operation if their JSON document is still the same as that fingerprint,
+     * i.e. if they haven't been modified since they were loaded/persisted.
+     * Only a reference to them is written in that case, and their version doesn't change.
+     * <p>
+     * Entities that are passed to persist() directly are always written.
+     * 
+     * @param dirtyChecking
+     */
+    public void setDirtyChecking(boolean dirtyChecking) {
+        this.dirtyChecking = dirtyChecking;
+    }
+
+    public boolean isPartialUpdates() {
+        return partialUpdates;
+    }
+
+    /**
+     * If true, remember fingerprints of the top-level properties of every entity
+     * that's loaded or persisted, and write entities that were loaded/persisted before
+     * using ES update requests that only contain the top-level properties that
+     * have changed since then, rather than re-indexing the whole document. The
+     * version check is performed as usual. Entities without any changes
+     * aren't written at all.
+     * <p>
+     * This is only done if all changed properties can be replaced in the stored
+     * document as a whole, i.e. if they contain JSON arrays, primitives or
+     * entity references, but no other nested objects (ES would merge those
+     * into the stored object rather than replacing it). Otherwise, the whole
+     * document is re-indexed.
+     * 
+     * @param partialUpdates
+     */
+    public void setPartialUpdates(boolean partialUpdates) {
+        this.partialUpdates = partialUpdates;
+    }
+
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * If true, non-cascaded references to entities whose declared type is an interface
+     * (e.g. a property of type <code>Place</code> referencing a <code>City implements Place</code>)
+     * are loaded as lazy-loading proxies rather than as non-loaded stubs. A proxy
+     * implements all the interfaces of the referenced entity's class and loads
+     * the entity when any method other than the id getter is called on it. All the
+     * proxies created by the same load operation that haven't been loaded yet are
+     * loaded together in a single multi-get request. References of other declared
+     * types (including collection elements) are still loaded as stubs.
+     * <p>
+     * Persisting an entity writes references to unloaded proxies without loading them.
+     * Use {@link #unproxy(Object)} to get the entity behind a proxy.
+     * 
+     * @param lazyLoading
+     */
+    public void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * Set a second-level cache of the documents read by this persister (null,
+     * the default, for none). Loads (including cascaded ones) take the documents
+     * from the cache if they are there, and store the ones they read from ES in it.
+     * Since the cache holds documents rather than entity instances, every load
+     * still returns new instances.
+     * <p>
+     * Persisting an entity replaces its cached document with the written one and the
+     * new version (or removes it from the cache if only part of the document was
+     * written, see {@link #setPartialUpdates(boolean)}). Writes that fail with a version conflict
+     * remove the document from the cache as well. Modifications made by anyone other than this
+     * persister aren't detected, so the cache should expire its entries eventually
+     * (like {@link DefaultEntityCache} does) unless there are none.
+     * 
+     * @param entityCache
+     */
+    public void setEntityCache(EntityCache entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * @return the entity behind obj if obj is a lazy-loading proxy (see
+     *         {@link #setLazyLoading(boolean)}), obj otherwise. The entity
+     *         is a non-loaded stub if the proxy hasn't been loaded yet.
+     */
+    public static Object unproxy(Object obj) {
+        return LazyReference.unwrap(obj);
+    }
+
     protected Client createDefaultEsClient() {
         Node node = NodeBuilder.nodeBuilder().client(true).node();
         return node.client();
@@ -90,18 +440,22 @@ public class EntityPersister {
     }
     
     public <T> T persist(T entity, CascadeSpec ccs) {
-        Persister p = new Persister();
-        p.setSubObjectsIgnoreVersion(true);  //TODO make configurable
-        return p.persist(entity, false, ccs);
+        return persist(entity, false, ccs);
     }
 
+    /**
+     * Persist multiple entities in one operation. Entities referenced
+     * by more than one of them are only written once. If {@link #setBulkWrites(boolean) bulk writes}
+     * are enabled, all of them (and all cascaded entities) are sent to ES in bulk.
+     */
     @SuppressWarnings("unchecked")
     public <T> void persist(CascadeSpec ccs, T... entities) {
-        Persister p = new Persister();
-        p.setSubObjectsIgnoreVersion(true);  //TODO make configurable
+        Persister p = createPersister();
         for (T entity : entities) {
             p.persist(entity, false, ccs);
         }
+        p.awaitCascades();
+        p.flush();
     }
 
     /**
@@ -112,9 +466,110 @@ public class EntityPersister {
      * @return
      */
     public <T> T persist(T entity, boolean ignoreVersion, CascadeSpec ccs) {
+        Persister p = createPersister();
+        p.persist(entity, ignoreVersion, ccs);
+        p.awaitCascades();
+        p.flush();
+        return entity;
+    }
+
+    /**
+     * Asynchronous variant of {@link #persist(Object)}. The returned future
+     * completes with the entity once it and all cascaded entities have been
+     * written. The entities are written in bulk (see {@link #setBulkWrites(boolean)}),
+     * regardless of whether bulk writes have been enabled for synchronous persists.
+     * Failures are reported via a {@link BulkPersistException}.
+     */
+    public <T> ListenableActionFuture<T> persistAsync(T entity) {
+        return persistAsync(entity, false, CascadeSpec.cascade());
+    }
+
+    public <T> ListenableActionFuture<T> persistAsync(T entity, CascadeSpec ccs) {
+        return persistAsync(entity, false, ccs);
+    }
+
+    public <T> ListenableActionFuture<T> persistAsync(final T entity, boolean ignoreVersion, CascadeSpec ccs) {
+        final PlainListenableActionFuture<T> result = newFuture();
+        try {
+            final Persister p = createPersister();
+            p.setBulk(true);
+            p.persist(entity, ignoreVersion, ccs);
+            //flush once the cascades are done, without waiting for them here
+            p.onCascadesDone(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        p.awaitCascades();  //only reports failures by now
+                        p.flushAsync(new ActionListener<Void>() {
+                            @Override
+                            public void onResponse(Void v) {
+                                result.onResponse(entity);
+                            }
+
+                            @Override
+                            public void onFailure(Throwable e) {
+                                result.onFailure(e);
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        result.onFailure(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            result.onFailure(e);
+        }
+        return result;
+    }
+
+    protected <T> PlainListenableActionFuture<T> newFuture() {
+        return new PlainListenableActionFuture<T>(false, getEsClient().threadPool());
+    }
+
+    protected Persister createPersister() {
         Persister p = new Persister();
         p.setSubObjectsIgnoreVersion(true);  //TODO make configurable
-        return p.persist(entity, ignoreVersion, ccs);
+        p.setBulk(bulkWrites);
+        return p;
+    }
+
+    public <T> IngestResult ingest(Iterable<T> entities, CascadeSpec ccs, IngestOptions options) {
+        return ingest(entities.iterator(), ccs, options);
+    }
+
+    /**
+     * Persist a large number of entities in bulk, e.g. for imports. The
+     * entities are marshalled concurrently on worker threads, and the resulting
+     * documents are sent to ES in bulk requests that are bounded in size and number
+     * of documents, with a bounded number of bulk requests in flight at any time.
+     * Reading from the iterator is throttled accordingly, so memory consumption
+     * doesn't depend on the number of entities. Documents rejected by ES because its
+     * thread pools are exhausted are retried with exponential backoff.
+     * <p>
+     * Sub-entities shared between several of the entities are only written once, by
+     * the cascade of the first entity that reaches them. The ingestion tracks them with
+     * weak references, so it doesn't keep them in memory. This doesn't apply to the
+     * entities themselves, which are written once each. Failures of individual
+     * entities don't abort the ingestion; they're reported in the result.
+     * 
+     * @param entities
+     * @param ccs
+     * @param options
+     * @return statistics and failures of the ingestion
+     */
+    public <T> IngestResult ingest(Iterator<T> entities, CascadeSpec ccs, IngestOptions options) {
+        return new Ingestion(this, ccs, options).run(entities);
+    }
+
+    protected Loader createLoader() {
+        return new Loader();
+    }
+
+    /**
+     * Open a new {@link EntitySession} that loads and persists entities via this persister.
+     */
+    public EntitySession openSession() {
+        return new EntitySession(this);
     }
     
     public <T> T findById(String id, Class<T> classOfT) {
@@ -125,6 +580,44 @@ public class EntityPersister {
         return findById(id, classOfT, ccs, new Loader());
     }
 
+    public <T> ListenableActionFuture<T> findByIdAsync(String id, Class<T> classOfT) {
+        return findByIdAsync(id, classOfT, CascadeSpec.noCascade());
+    }
+
+    /**
+     * Asynchronous variant of {@link #findById(String, Class, CascadeSpec)}. The ES
+     * requests for the entity and for all entities it cascades into are sent without
+     * blocking the calling thread; the returned future completes with the loaded
+     * entity, or with null if it doesn't exist.
+     */
+    public <T> ListenableActionFuture<T> findByIdAsync(String id, Class<T> classOfT, CascadeSpec ccs) {
+        final PlainListenableActionFuture<T> result = newFuture();
+        final T entity;
+        try {
+            entity = classOfT.newInstance();
+        } catch (Exception e) {
+            result.onFailure(new IllegalStateException("unable to instantiate entity class " + classOfT.getName(), e));
+            return result;
+        }
+        EntityIntrospector.setId(entity, id);
+        new Loader().loadAsync(entity, ccs, new ActionListener<Void>() {
+            @Override
+            public void onResponse(Void v) {
+                result.onResponse(entity);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (e instanceof EntityNotFoundException) {
+                    result.onResponse(null);
+                } else {
+                    result.onFailure(e);
+                }
+            }
+        });
+        return result;
+    }
+
     /**
      * 
      * @param <T>
@@ -135,29 +628,114 @@ public class EntityPersister {
      */
     public <T> Map<String, T> findById(Class<T> classOfT, CascadeSpec ccs, String... ids) {
         Loader l = new Loader();
+        List<GetResponse> responses = l.readRaw(Arrays.asList(ids), Collections.<Class<?>>nCopies(ids.length, classOfT));
+        List<T> entities = new ArrayList<T>(ids.length);
+        for (String id : ids) {
+            T entity = instantiate(classOfT);
+            EntityIntrospector.setId(entity, id);
+            entities.add(entity);
+        }
+        Set<Object> missing = l.load(responses, entities, ccs);
         Map<String, T> result = new LinkedHashMap<String, T>();
         for (String id : ids) {
-            result.put(id, findById(id, classOfT, ccs, l));
+            //the first instance with the id, in case of duplicate ids
+            Object entity = l.getSeenEntity(id);
+            result.put(id, missing.contains(entity) ? null : classOfT.cast(entity));
         }
         return result;
     }
 
     public Map<String, Object> findById(CascadeSpec ccs, String... ids) {
         Loader l = new Loader();
+        List<GetResponse> allResponses = l.readRaw(Arrays.asList(ids), Collections.<Class<?>>nCopies(ids.length, null));
+        List<GetResponse> responses = new ArrayList<GetResponse>(ids.length);
+        List<Object> entities = new ArrayList<Object>(ids.length);
+        for (GetResponse res : allResponses) {
+            if (res.isExists()) {
+                Object entity = instantiate(res);
+                EntityIntrospector.setId(entity, res.getId());
+                responses.add(res);
+                entities.add(entity);
+            }
+        }
+        l.load(responses, entities, ccs);
         Map<String, Object> result = new LinkedHashMap<String, Object>();
-        for (String id : ids) {
-            result.put(id, findById(id, ccs, l));
+        for (int i = 0; i < ids.length; i++) {
+            result.put(ids[i], allResponses.get(i).isExists() ? l.getSeenEntity(ids[i]) : null);
         }
         return result;
     }
 
-    protected <T> T findById(String id, Class<T> classOfT, CascadeSpec ccs, Loader l) {
-        T result;
+    private <T> T instantiate(Class<T> classOfT) {
+        registerEntityClass(classOfT);
         try {
-            result = classOfT.newInstance();
+            return classOfT.newInstance();
         } catch (Exception e) {
             throw new IllegalStateException("unable to instantiate entity class " + classOfT.getName(), e);
         }
+    }
+
+    /**
+     * Instantiate the entity class of the document in res. The class is looked up
+     * by the document's ES type in the classes registered with
+     * {@link #registerEntityClass(Class)}, or, if it isn't found there, read from
+     * the _class property of the document (which is usually its first property, so
+     * the rest of the document isn't parsed).
+     */
+    private Object instantiate(GetResponse res) {
+        Class<?> cls = entityClassesByType.get(res.getType());
+        try {
+            if (cls == null || cls == AmbiguousType.class) {
+                String className = readClassName(res.getSourceAsBytesRef());
+                if (className == null) {
+                    throw new IllegalStateException("no _class property in document " + res.getId());
+                }
+                cls = Class.forName(className);
+            }
+            return cls.newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("unable to instantiate entity class " + res.getType(), e);
+        }
+    }
+
+    private static String readClassName(BytesReference source) throws IOException {
+        JsonReader r = new JsonReader(new InputStreamReader(source.streamInput(), StandardCharsets.UTF_8));
+        try {
+            r.beginObject();
+            while (r.hasNext()) {
+                if ("_class".equals(r.nextName())) {
+                    return r.nextString();
+                }
+                r.skipValue();
+            }
+            return null;
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Make entityClass known as the class of the documents of ES type
+     * entityClass.getSimpleName(), so untyped finds (e.g. {@link #findById(String, CascadeSpec)})
+     * of such documents don't need to read their class from the document. If several
+     * classes with the same simple name are registered, the class is always read from
+     * the document. Classes are registered automatically when their entities are persisted
+     * or found with typed finds.
+     */
+    public void registerEntityClass(Class<?> entityClass) {
+        String type = entityClass.getSimpleName();
+        Class<?> prev = entityClassesByType.putIfAbsent(type, entityClass);
+        if (prev != null && prev != entityClass) {
+            entityClassesByType.put(type, AmbiguousType.class);
+        }
+    }
+
+    //marker for ES types that are used by more than one entity class
+    private static final class AmbiguousType {
+    }
+
+    protected <T> T findById(String id, Class<T> classOfT, CascadeSpec ccs, Loader l) {
+        T result = instantiate(classOfT);
         EntityIntrospector.setId(result, id);
         try {
             l.load(result, ccs);
@@ -167,124 +745,731 @@ public class EntityPersister {
         return result;
     }
     
+    /**
+     * Untyped (polymorphic) find. The class of the returned entity is
+     * determined from the document.
+     * 
+     * @return the entity, or null if it doesn't exist
+     */
+    public Object findById(String id, CascadeSpec ccs) {
+        return findById(id, ccs, new Loader());
+    }
+
     protected Object findById(String id, CascadeSpec ccs, Loader l) {
         Object result;
         GetResponse res = l.readRaw(id, null);
         if (! res.isExists()) {
             return null;
         }
-        try {
-            // determine class from _class property. disadvantage: requires additional JSON->JsonObject parse step
-            // We could determine it from res.getType(), but that would prevent users from storing entities in
-            // arbitrary types. We could also use JsonConverter's own polymorphic Object fromJson(String json),
-            // which reads the _class internally, but in that case, the root entity would be created by JsonConverter,
-            // relatively late in the Json->Object conversion, which would make it a bit awkward to capture the
-            // root object and put it into the Loader's seenEntitiesById early enough (it is possible, but the code
-            // would be ugly)
-            JsonParser p = new JsonParser();
-            JsonObject json = p.parse(res.getSourceAsString()).getAsJsonObject();
-            result = Class.forName(json.get("_class").getAsString()).newInstance();
-        } catch (Exception e) {
-            throw new IllegalStateException("unable to instantiate entity class " + res.getType(), e);
+        result = instantiate(res);
+        EntityIntrospector.setId(result, id);
+        l.load(res, result, ccs);
+        return result;
+    }
+
+    /**
+     * Find all entities of class classOfT matching query. The entities are
+     * unmarshalled directly from the hits of a scan/scroll search, which is
+     * read page by page (see {@link #setScrollPageSize(int)}) as the returned
+     * iterator advances, so memory consumption doesn't depend on the number of hits.
+     * The order of the entities is unspecified.
+     * <p>
+     * Cascaded references are loaded per page, with as few multi-get requests as
+     * possible. References between the entities of a page are resolved to the same
+     * instances, but there is no such guarantee across pages.
+     * 
+     * @return an iterator over the entities, which should be closed if it isn't
+     *         iterated to the end
+     */
+    public <T> EntityIterator<T> stream(QueryBuilder query, Class<T> classOfT, CascadeSpec ccs) {
+        registerEntityClass(classOfT);
+        SearchResponse res = getEsClient().prepareSearch(getIndexName())
+                .setTypes(classOfT.getSimpleName())
+                .setSearchType(SearchType.SCAN)
+                .setScroll(EntityIterator.SCROLL_KEEP_ALIVE)
+                .setQuery(query)
+                .setSize(getScrollPageSize())
+                .setVersion(true)
+                .execute().actionGet();
+        return new EntityIterator<T>(this, classOfT, ccs, res.getScrollId());
+    }
+
+    /**
+     * Unmarshal a page of search hits, see {@link #stream(QueryBuilder, Class, CascadeSpec)}.
+     */
+    <T> List<T> loadHits(SearchHit[] hits, Class<T> classOfT, CascadeSpec ccs) {
+        List<GetResponse> responses = new ArrayList<GetResponse>(hits.length);
+        List<T> result = new ArrayList<T>(hits.length);
+        for (SearchHit hit : hits) {
+            responses.add(new GetResponse(new GetResult(hit.getIndex(), hit.getType(), hit.getId(),
+                    hit.getVersion(), true, hit.getSourceRef(), null)));
+            T entity = instantiate(classOfT);
+            EntityIntrospector.setId(entity, hit.getId());
+            result.add(entity);
         }
+        new Loader().load(responses, result, ccs);
+        return result;
+    }
+
+    public String findRawById(String id, Class<?> classOfT) {
+        Loader l = new Loader();
+        GetResponse res = l.readRaw(id, classOfT);
+        if (!res.isExists()) {
+            return null;
+        }
+        return res.getSourceAsString();
+    }
+
+    
+    public void load(Object entity) {
+        load(entity, CascadeSpec.cascade());
+    }
+    
+    public void load(Object entity, CascadeSpec ccs) {
+        Loader l = new Loader();
+        l.load(entity, ccs);
+    }
+
+    /**
+     * Projection find: read only the given properties of the entity from ES
+     * (using source filtering), and populate only those. References among
+     * them are set to stubs. The returned entity is {@link #isPartiallyLoaded(Object) partially loaded}.
+     * 
+     * @param properties
+     *            property paths in the notation of {@link PropertyPath#getPathNotation()},
+     *            e.g. <code>name</code> or <code>address.city</code>. Array
+     *            indices and map keys are ignored, i.e. <code>sisterCities[0]</code>
+     *            reads the whole <code>sisterCities</code> property.
+     * @return the entity, or null if it doesn't exist
+     */
+    public <T> T findById(String id, Class<T> classOfT, Set<String> properties) {
+        T result = instantiate(classOfT);
         EntityIntrospector.setId(result, id);
         try {
-            l.load(result, ccs);
+            load(result, properties);
         } catch (EntityNotFoundException e) {
             return null;
         }
-        return result;
-    }
+        return result;
+    }
+
+    /**
+     * Projection load: populate only the given properties of entity, see
+     * {@link #findById(String, Class, Set)}.
+     */
+    public void load(Object entity, Set<String> properties) {
+        Loader l = new Loader();
+        l.setProjection(properties);
+        l.load(entity, CascadeSpec.noCascade());
+    }
+
+    /**
+     * @return true if entity has been populated by a projection load (see
+     *         {@link #findById(String, Class, Set)}) and hasn't been loaded
+     *         fully since. Such entities can't be persisted, because that would
+     *         delete the properties that weren't loaded.
+     */
+    public boolean isPartiallyLoaded(Object entity) {
+        return partiallyLoaded.containsKey(LazyReference.unwrap(entity));
+    }
+    
+    /**
+     * Load multiple entities, reading them (and the entities they cascade into)
+     * with as few multi-get requests as possible.
+     * 
+     * @throws EntityNotFoundException if any of the entities doesn't exist. The
+     *         other entities will have been loaded nonetheless.
+     */
+    public void load(CascadeSpec ccs, Object... entities) {
+        Loader l = new Loader();
+        List<String> ids = new ArrayList<String>(entities.length);
+        List<Class<?>> classes = new ArrayList<Class<?>>(entities.length);
+        for (Object entity : entities) {
+            String id = EntityIntrospector.getId(entity);
+            if (id == null) {
+                throw new IllegalArgumentException("can't load entity with null ID: " + entity);
+            }
+            ids.add(id);
+            classes.add(entity.getClass());
+        }
+        Set<Object> missing = l.load(l.readRaw(ids, classes), Arrays.asList(entities), ccs);
+        if (!missing.isEmpty()) {
+            Object entity = missing.iterator().next();
+            throw new EntityNotFoundException("entity not found: type=" + entity.getClass() + ", id=" + EntityIntrospector.getId(entity));
+        }
+    }
+
+    public <T> ListenableActionFuture<T> loadAsync(T entity) {
+        return loadAsync(entity, CascadeSpec.cascade());
+    }
+
+    /**
+     * Asynchronous variant of {@link #load(Object, CascadeSpec)}. The returned
+     * future completes with the entity once it and all entities it cascades into
+     * have been loaded, or fails with an {@link EntityNotFoundException} if the
+     * entity doesn't exist.
+     */
+    public <T> ListenableActionFuture<T> loadAsync(final T entity, CascadeSpec ccs) {
+        final PlainListenableActionFuture<T> result = newFuture();
+        try {
+            new Loader().loadAsync(entity, ccs, new ActionListener<Void>() {
+                @Override
+                public void onResponse(Void v) {
+                    result.onResponse(entity);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    result.onFailure(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.onFailure(e);
+        }
+        return result;
+    }
+
+    protected class Persister implements TypedJsonMarshaller, JsonMarshallingFilter {
+        private boolean subObjectsIgnoreVersion = false;
+        //per thread because of parallel cascades (see EntityPersister#setCascadeExecutor)
+        private final ThreadLocal<LinkedList<PropertyPath>> entitiesStack = new ThreadLocal<LinkedList<PropertyPath>>() {
+            @Override
+            protected LinkedList<PropertyPath> initialValue() {
+                return new LinkedList<PropertyPath>();
+            }
+        };
+        //TODO: hash by ID rather than identity?
+        private final Set<Object> seenEntities = Collections.synchronizedSet(new IdentityHashSet<Object>());
+        //sub-entities claimed by this or other persisters (see setSharedSubEntities), null if not shared
+        private Set<Object> sharedSubEntities;
+        private List<PendingWrite> pendingWrites;  //non-null in bulk mode
+        private final Queue<Future<?>> cascadeTasks = new ConcurrentLinkedQueue<Future<?>>();
+        //cascade tasks that haven't completed yet, plus 1 until onCascadesDone has been called
+        private final AtomicInteger unfinishedCascades = new AtomicInteger(1);
+        private volatile Runnable cascadesDoneCallback;
+        //configured once per operation, with a context per written entity
+        private final JsonConverter converter = createConverter();
+
+        protected JsonConverter createConverter() {
+            JsonConverter result = new JsonConverter();
+            result.registerMarshaller(this);
+            result.registerMarshallingFilter(this);
+            return result.freeze();
+        }
+
+        public boolean isSubObjectsIgnoreVersion() {
+            return subObjectsIgnoreVersion;
+        }
+        
+        public void setSubObjectsIgnoreVersion(boolean subObjectsIgnoreVersion) {
+            this.subObjectsIgnoreVersion = subObjectsIgnoreVersion;
+        }
+
+        /**
+         * @return all entities persisted so far, including the cascaded ones
+         */
+        public Set<Object> getSeenEntities() {
+            return seenEntities;
+        }
+
+        /**
+         * Share the set of cascaded sub-entities with other persisters, so sub-entities
+         * reachable from the entities persisted by several of them are only written once
+         * (by the first one to reach them). The entities passed to
+         * {@link #persist(Object, boolean, CascadeSpec)} aren't added to it. Must be
+         * called before persisting anything.
+         * 
+         * @param sharedSubEntities
+         *            a thread-safe identity set; entities are claimed in it while
+         *            synchronized on it
+         */
+        public void setSharedSubEntities(Set<Object> sharedSubEntities) {
+            this.sharedSubEntities = sharedSubEntities;
+        }
+
+        public boolean isBulk() {
+            return pendingWrites != null;
+        }
+
+        /**
+         * In bulk mode, {@link #persist(Object, boolean, CascadeSpec)} only collects
+         * the index requests, which are sent to ES by {@link #flush()}.
+         */
+        public void setBulk(boolean bulk) {
+            if (bulk != isBulk()) {
+                pendingWrites = bulk ? Collections.synchronizedList(new ArrayList<PendingWrite>()) : null;
+            }
+        }
+        
+        /**
+         * Persist entity, unless it has been persisted by this persister already, e.g. because
+         * an entity persisted before references it. With a cascade executor, that may
+         * also be happening concurrently.
+         */
+        public <T> T persist(T entity, boolean ignoreVersion, CascadeSpec cascadeSpec) {
+            String presetId;
+            //claimed like cascaded entities, see persistConcurrently
+            synchronized (seenEntities) {
+                if (!seenEntities.add(entity)) {
+                    return entity;
+                }
+                presetId = assignIdIfNew(entity);
+            }
+            return persist(entity, presetId, ignoreVersion, cascadeSpec);
+        }
+
+        /**
+         * Give e an id if it doesn't have one. Called while e is being added to seenEntities
+         * (synchronized on it), so others that find e in there can write references
+         * to it right away.
+         * 
+         * @return the new id, null if e had an id already
+         */
+        private String assignIdIfNew(Object e) {
+            if (EntityIntrospector.getId(e) != null) {
+                return null;
+            }
+            String id = getIdGenerator(e.getClass()).generateId(e);
+            EntityIntrospector.setId(e, id);
+            return id;
+        }
+
+        /**
+         * Claim the sub-entity e like {@link #persist(Object, boolean, CascadeSpec)}
+         * claims the entities passed to it, and also in sharedSubEntities if set.
+         * 
+         * @return the id given to e (see assignIdIfNew), or ALREADY_CLAIMED if
+         *         this or another persister sharing sharedSubEntities has claimed e
+         *         already (it has an id then)
+         */
+        private String claimSubEntity(Object e) {
+            synchronized (seenEntities) {
+                if (!seenEntities.add(e)) {
+                    return ALREADY_CLAIMED;
+                }
+                if (sharedSubEntities == null) {
+                    return assignIdIfNew(e);
+                }
+                //the claim and the id are made atomically, so others finding e claimed can refer to it
+                synchronized (sharedSubEntities) {
+                    if (!sharedSubEntities.add(e)) {
+                        return ALREADY_CLAIMED;
+                    }
+                    return assignIdIfNew(e);
+                }
+            }
+        }
+
+        /**
+         * The caller must have added entity to seenEntities.
+         * 
+         * @param presetId
+         *            if non-null, entity is new, and its id has already been set to
+         *            this by the caller
+         */
+        private <T> T persist(T entity, String presetId, boolean ignoreVersion, CascadeSpec cascadeSpec) {
+            String prevId = presetId == null ? EntityIntrospector.getId(entity) : null;
+            boolean supportsVersion = EntityIntrospector.supportsVersion(entity);
+            Long prevVersion = supportsVersion ? EntityIntrospector.getVersion(entity) : null;
+            if (supportsVersion && ((prevId == null) != (prevVersion == null))) {
+                throw new IllegalStateException("persisting a non-new object without a version, or a new object with a version, is not supported");
+            }
+            if (isPartiallyLoaded(entity)) {
+                throw new IllegalStateException("persisting a partially loaded entity is not supported (id=" + prevId + ")");
+            }
+            
+            if (log.isDebugEnabled()) {
+                log.debug("persisting: " + Joiner.on("=>").join(Lists.reverse(entitiesStack.get())) + " (" + entity + ")");
+            }
+            
+            String id = prevId != null ? prevId : presetId;
+            if (id == null) {
+                id = getIdGenerator(entity.getClass()).generateId(entity);
+                EntityIntrospector.setId(entity, id);
+            }
+            String type = entity.getClass().getSimpleName();
+            registerEntityClass(entity.getClass());
+            JsonConverter jsc = converter.newContext();
+            jsc.setAttribute("cascadeSpec", cascadeSpec.compile());
+            EntityFingerprint prevFingerprint = prevId == null ? null : fingerprints.get(entity);
+            EntityFingerprint fingerprint = null;
+            BytesReference source;
+            if (isPartialUpdates()) {
+                JsonObject json = jsc.toJsonElement(entity).getAsJsonObject();
+                fingerprint = EntityFingerprint.of(prevVersion, json);
+                if (prevFingerprint != null && prevFingerprint.hasPropertyHashes() && fingerprint.sameVersion(prevFingerprint)) {
+                    JsonObject changes = fingerprint.getChangedProperties(json, prevFingerprint);
+                    if (changes != null && changes.entrySet().isEmpty()) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("unchanged, not writing: " + Joiner.on("=>").join(Lists.reverse(entitiesStack.get())) + " (" + entity + ")");
+                        }
+                        return entity;
+                    }
+                    if (changes != null && isUpdatableInPlace(changes)) {
+                        UpdateRequestBuilder urb = getEsClient().prepareUpdate(getIndexName(), type, id);
+                        urb.setDoc(changes.toString());
+                        if (!ignoreVersion) {
+                            urb.setVersion(prevVersion);
+                        }
+                        return write(entity, urb, fingerprint);
+                    }
+                }
+                source = new BytesArray(json.toString());
+            } else {
+                source = toJsonBytes(jsc, entity);
+                if (isDirtyChecking()) {
+                    fingerprint = EntityFingerprint.of(prevVersion, source, false);
+                    if (prevId != null && !entitiesStack.get().isEmpty() && fingerprint.matches(prevFingerprint)) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("unchanged, not writing: " + Joiner.on("=>").join(Lists.reverse(entitiesStack.get())) + " (" + entity + ")");
+                        }
+                        return entity;
+                    }
+                }
+            }
+
+            IndexRequestBuilder irb = getEsClient().prepareIndex(getIndexName(), type, id);
+            if (prevId != null) {
+                if (!ignoreVersion) {
+                    irb.setVersion(prevVersion);
+                }
+                irb.setCreate(false);
+            } else {
+                irb.setCreate(true);
+            }
+            irb.setSource(source);
+            return write(entity, irb, fingerprint);
+        }
+
+        /**
+         * Marshal entity directly into a UTF-8 byte buffer that can be handed to
+         * the index request as is. The buffer can't be reused across entities because
+         * cascaded entities are marshalled while the parent's document is still
+         * being written, and bulk requests hold on to the sources until they're sent.
+         */
+        private BytesReference toJsonBytes(JsonConverter jsc, Object entity) {
+            BytesStreamOutput out = new BytesStreamOutput(512);
+            try {
+                jsc.writeJson(entity, out);
+            } catch (IOException e) {
+                throw new IllegalStateException("BUG (shouldn't happen)", e);
+            }
+            return out.bytes();
+        }
+
+        /**
+         * ES merges partial update documents into the stored document recursively,
+         * so a changed property whose value contains JSON objects can only be sent
+         * in a partial update if those objects are references, which always
+         * have the same keys. Arrays are replaced as a whole.
+         */
+        private boolean isUpdatableInPlace(JsonObject changes) {
+            for (Map.Entry<String, JsonElement> en : changes.entrySet()) {
+                JsonElement value = en.getValue();
+                if (value.isJsonObject()) {
+                    Set<String> keys = new HashSet<String>();
+                    for (Map.Entry<String, JsonElement> subEn : value.getAsJsonObject().entrySet()) {
+                        keys.add(subEn.getKey());
+                    }
+                    if (!REFERENCE_KEYS.containsAll(keys)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private <T> T write(T entity, ActionRequestBuilder<?, ?, ?, ?> request, EntityFingerprint fingerprint) {
+            if (isBulk()) {
+                pendingWrites.add(new PendingWrite(entity, request, fingerprint));
+                return entity;
+            }
+            try {
+                if (request instanceof UpdateRequestBuilder) {
+                    UpdateResponse res = ((UpdateRequestBuilder) request).execute().actionGet();
+                    written(entity, request, res.getId(), res.getVersion(), fingerprint);
+                } else {
+                    IndexResponse res = ((IndexRequestBuilder) request).execute().actionGet();
+                    written(entity, request, res.getId(), res.getVersion(), fingerprint);
+                }
+            } catch (VersionConflictEngineException esVersionException) {
+                invalidateCached(EntityIntrospector.getId(entity));
+                throw new VersionConflictException("Version " + EntityIntrospector.getVersion(entity) +
+                        " was deprecated (" + esVersionException.getLocalizedMessage() + ")",
+                        esVersionException);
+            }
+            return entity;
+        }
+
+        /**
+         * Wait until all sub-entities that have been handed to the cascade executor
+         * by the preceding {@link #persist(Object, boolean, CascadeSpec)} calls have been
+         * persisted. No-op if there's no cascade executor.
+         * 
+         * @throws RuntimeException the first exception thrown by any of the sub-entities'
+         *         persist operations, after all of them have completed
+         */
+        public void awaitCascades() {
+            RuntimeException failure = null;
+            Future<?> task;
+            //tasks add the tasks of their own sub-entities to the queue before they complete
+            while ((task = cascadeTasks.poll()) != null) {
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for cascaded persist operations", e);
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() :
+                            new IllegalStateException("error persisting sub-entity: " + e.getCause().getLocalizedMessage(), e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Non-blocking variant of {@link #awaitCascades()}: Run callback once all
+         * sub-entities that have been handed to the cascade executor by the preceding
+         * {@link #persist(Object, boolean, CascadeSpec)} calls have been persisted,
+         * right away if that's the case already. It runs on the thread that completes the
+         * last of them, and may call awaitCascades() (which won't block then) to check for
+         * failures. May only be called once, after the last persist call.
+         */
+        public void onCascadesDone(Runnable callback) {
+            if (cascadesDoneCallback != null) {
+                throw new IllegalStateException("onCascadesDone may only be called once");
+            }
+            cascadesDoneCallback = callback;
+            cascadeFinished();
+        }
+
+        private void cascadeFinished() {
+            if (unfinishedCascades.decrementAndGet() == 0) {
+                cascadesDoneCallback.run();
+            }
+        }
+
+        /**
+         * Hand e to the cascade executor, unless it was handed over or persisted already.
+         */
+        private void persistConcurrently(final PropertyPath sourcePath, final Object e, final CascadeSpec subSpec) {
+            //assigns the id here so our caller can write the reference right away
+            final String presetId = claimSubEntity(e);
+            if (presetId == ALREADY_CLAIMED) {
+                return;
+            }
+            final LinkedList<PropertyPath> stack = new LinkedList<PropertyPath>(entitiesStack.get());
+            stack.push(sourcePath);
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    LinkedList<PropertyPath> callerStack = entitiesStack.get();
+                    entitiesStack.set(stack);
+                    try {
+                        persist(e, presetId, subObjectsIgnoreVersion, subSpec);
+                    } finally {
+                        if (callerStack.isEmpty()) {
+                            entitiesStack.remove();  //don't leave garbage in pool threads
+                        } else {
+                            entitiesStack.set(callerStack);
+                        }
+                    }
+                    return null;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    //called once the task is complete (and get() won't block), after it has
+                    //handed over all of its own sub-entities
+                    cascadeFinished();
+                }
+            };
+            unfinishedCascades.incrementAndGet();
+            cascadeTasks.add(task);
+            try {
+                cascadeExecutor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                task.run();
+            }
+        }
+
+        /**
+         * Send all index requests collected in bulk mode to ES, in chunks of
+         * at most {@link EntityPersister#getMaxBulkActions()} requests. No-op
+         * if not in bulk mode.
+         * 
+         * @throws BulkPersistException if any of the entities couldn't be written.
+         *         All the other entities will have been written nonetheless.
+         */
+        public void flush() {
+            if (!isBulk() || pendingWrites.isEmpty()) {
+                return;
+            }
+            List<BulkPersistException.Failure> failures = new ArrayList<BulkPersistException.Failure>();
+            try {
+                for (List<PendingWrite> chunk : getBulkChunks()) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("sending bulk request with " + chunk.size() + " entities");
+                    }
+                    BulkResponse res = createBulkRequest(chunk).execute().actionGet();
+                    bulkWritten(chunk, res, failures);
+                }
+            } finally {
+                pendingWrites.clear();
+            }
+            if (!failures.isEmpty()) {
+                throw new BulkPersistException(failures);
+            }
+        }
 
-    public String findRawById(String id, Class<?> classOfT) {
-        Loader l = new Loader();
-        GetResponse res = l.readRaw(id, classOfT);
-        if (!res.isExists()) {
-            return null;
+        /**
+         * Asynchronous variant of {@link #flush()}. Sends all bulk requests
+         * concurrently and notifies listener when all of them have completed,
+         * with a {@link BulkPersistException} if any of the entities couldn't
+         * be written.
+         * 
+         * @param listener
+         */
+        public void flushAsync(final ActionListener<Void> listener) {
+            if (!isBulk() || pendingWrites.isEmpty()) {
+                listener.onResponse(null);
+                return;
+            }
+            final List<List<PendingWrite>> chunks = getBulkChunks();
+            final List<BulkPersistException.Failure> failures =
+                    Collections.synchronizedList(new ArrayList<BulkPersistException.Failure>());
+            final AtomicInteger outstanding = new AtomicInteger(chunks.size());
+            pendingWrites = Collections.synchronizedList(new ArrayList<PendingWrite>());
+            for (final List<PendingWrite> chunk : chunks) {
+                createBulkRequest(chunk).execute(new ActionListener<BulkResponse>() {
+                    @Override
+                    public void onResponse(BulkResponse res) {
+                        try {
+                            bulkWritten(chunk, res, failures);
+                        } catch (RuntimeException e) {
+                            onFailure(e);
+                            return;
+                        }
+                        chunkDone();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        for (PendingWrite pw : chunk) {
+                            failures.add(new BulkPersistException.Failure(pw.entity,
+                                    new IllegalStateException("bulk request failed: " + e.getLocalizedMessage(), e)));
+                        }
+                        chunkDone();
+                    }
+
+                    private void chunkDone() {
+                        if (outstanding.decrementAndGet() == 0) {
+                            if (failures.isEmpty()) {
+                                listener.onResponse(null);
+                            } else {
+                                listener.onFailure(new BulkPersistException(new ArrayList<BulkPersistException.Failure>(failures)));
+                            }
+                        }
+                    }
+                });
+            }
         }
-        return res.getSourceAsString();
-    }
 
-    
-    public void load(Object entity) {
-        load(entity, CascadeSpec.cascade());
-    }
-    
-    public void load(Object entity, CascadeSpec ccs) {
-        Loader l = new Loader();
-        l.load(entity, ccs);
-    }
-    
-    public void load(CascadeSpec ccs, Object... entities) {
-        Loader l = new Loader();
-        for (Object entity : entities) {
-            l.load(entity, ccs);
+        /**
+         * Remove and return the writes collected so far in bulk mode, without sending them.
+         */
+        List<PendingWrite> takePendingWrites() {
+            if (!isBulk()) {
+                throw new IllegalStateException("not in bulk mode");
+            }
+            List<PendingWrite> result = pendingWrites;
+            pendingWrites = Collections.synchronizedList(new ArrayList<PendingWrite>());
+            return result;
         }
-    }
 
-    protected class Persister implements JsonMarshaller, JsonMarshallingFilter {
-        private boolean subObjectsIgnoreVersion = false;
-        private final LinkedList<PropertyPath> entitiesStack = new LinkedList<PropertyPath>();
-        private final Set<Object> seenEntities = new IdentityHashSet<Object>();  //TODO: hash by ID rather than identity?
+        private List<List<PendingWrite>> getBulkChunks() {
+            List<List<PendingWrite>> result = new ArrayList<List<PendingWrite>>();
+            for (int start = 0; start < pendingWrites.size(); start += getMaxBulkActions()) {
+                result.add(pendingWrites.subList(start, Math.min(pendingWrites.size(), start + getMaxBulkActions())));
+            }
+            return result;
+        }
 
-        public boolean isSubObjectsIgnoreVersion() {
-            return subObjectsIgnoreVersion;
+        BulkRequestBuilder createBulkRequest(List<PendingWrite> chunk) {
+            BulkRequestBuilder brb = getEsClient().prepareBulk();
+            for (PendingWrite pw : chunk) {
+                if (pw.request instanceof UpdateRequestBuilder) {
+                    brb.add((UpdateRequestBuilder) pw.request);
+                } else {
+                    brb.add((IndexRequestBuilder) pw.request);
+                }
+            }
+            return brb;
         }
-        
-        public void setSubObjectsIgnoreVersion(boolean subObjectsIgnoreVersion) {
-            this.subObjectsIgnoreVersion = subObjectsIgnoreVersion;
+
+        private void bulkWritten(List<PendingWrite> chunk, BulkResponse res, List<BulkPersistException.Failure> failures) {
+            for (BulkItemResponse item : res.getItems()) {
+                PendingWrite pw = chunk.get(item.getItemId());
+                if (item.isFailed()) {
+                    failures.add(new BulkPersistException.Failure(pw.entity, toException(pw.entity, item)));
+                } else {
+                    written(pw.entity, pw.request, item.getId(), item.getVersion(), pw.fingerprint);
+                }
+            }
         }
-        
-        public <T> T persist(T entity, boolean ignoreVersion, CascadeSpec cascadeSpec) {
-            String prevId = EntityIntrospector.getId(entity);
+
+        void written(Object entity, ActionRequestBuilder<?, ?, ?, ?> request, String id, long version, EntityFingerprint fingerprint) {
+            EntityIntrospector.setId(entity, id);
+            cacheWritten(request, id, version);
             boolean supportsVersion = EntityIntrospector.supportsVersion(entity);
-            Long prevVersion = supportsVersion ? EntityIntrospector.getVersion(entity) : null;
-            if (supportsVersion && ((prevId == null) != (prevVersion == null))) {
-                throw new IllegalStateException("persisting a non-new object without a version, or a new object with a version, is not supported");
+            if (supportsVersion) {
+                EntityIntrospector.setVersion(entity, version);
             }
-            
-            if (log.isDebugEnabled()) {
-                log.debug("persisting: " + Joiner.on("=>").join(Lists.reverse(entitiesStack)) + " (" + entity + ")");
+            if (fingerprint != null) {
+                fingerprints.put(entity, fingerprint.withVersion(supportsVersion ? version : null));
             }
-            
-            seenEntities.add(entity);
-            
-            IndexRequestBuilder irb = getEsClient().prepareIndex();
-            if (prevId != null) {
-                irb.setId(prevId);
-                if (!ignoreVersion) {
-                    irb.setVersion(prevVersion);
-                }
-                irb.setCreate(false);
+            if (EntityIntrospector.supportsLoadedFlag(entity)) {
+                EntityIntrospector.setLoaded(entity, true);
+            }
+        }
+
+        /**
+         * Update the cached document of a written entity, but only if it is cached
+         * already, so mass writes don't flood the cache.
+         */
+        private void cacheWritten(ActionRequestBuilder<?, ?, ?, ?> request, String id, long version) {
+            EntityCache cache = getEntityCache();
+            if (cache == null || cache.get(id) == null) {
+                return;
+            }
+            if (request instanceof IndexRequestBuilder) {
+                IndexRequest ir = ((IndexRequestBuilder) request).request();
+                cache.put(new GetResponse(new GetResult(ir.index(), ir.type(), id, version, true, ir.source(), null)));
             } else {
-                String id = UUID.randomUUID().toString();
-                irb.setId(id);
-                EntityIntrospector.setId(entity, id);
-                irb.setCreate(true);
+                cache.invalidate(id);
             }
-            irb.setIndex(getIndexName());
-            irb.setType(entity.getClass().getSimpleName());
-            JsonConverter jsc = new JsonConverter();
-            jsc.registerMarshaller(this);
-            jsc.registerMarshallingFilter(this);
-            jsc.setAttribute("cascadeSpec", cascadeSpec);
-            String json = jsc.toJson(entity);
-            irb.setSource(json);
-            try {
-                IndexResponse res = irb.execute().actionGet();
-                EntityIntrospector.setId(entity, res.getId());
-                if (supportsVersion) {
-                    EntityIntrospector.setVersion(entity, res.getVersion());
-                }
-                if (EntityIntrospector.supportsLoadedFlag(entity)) {
-                    EntityIntrospector.setLoaded(entity, true);
-                }
-            } catch (VersionConflictEngineException esVersionException) {
-                throw new VersionConflictException("Version " + EntityIntrospector.getVersion(entity) +
-                        " was deprecated (" + esVersionException.getLocalizedMessage() + ")",
-                        esVersionException);
+        }
+
+        RuntimeException toException(Object entity, BulkItemResponse item) {
+            if (item.getFailure().getStatus() == RestStatus.CONFLICT) {
+                invalidateCached(item.getId());
+                return new VersionConflictException("Version " + EntityIntrospector.getVersion(entity) +
+                        " was deprecated (" + item.getFailureMessage() + ")");
+            } else {
+                return new IllegalStateException("error persisting " + entity + " (id=" + item.getId() + "): " +
+                        item.getFailureMessage());
             }
-            return entity;
+        }
+
+        @Override
+        public boolean handlesType(Class<?> type) {
+            //lazy references are proxies
+            return type != null && (EntityIntrospector.isEntity(type) ||
+                    (Proxy.class.isAssignableFrom(type) && Proxy.isProxyClass(type)));
         }
 
         @Override
@@ -299,6 +1484,16 @@ public class EntityPersister {
                 //we don't handle a root object, even if it is an entity (which it probably is)
                 return false;
             }
+
+            LazyReference lazyRef = LazyReference.of(e);
+            if (lazyRef != null) {
+                if (!lazyRef.isResolved()) {
+                    //never loaded, so nothing to persist
+                    writeReference(out, lazyRef.getTarget());
+                    return true;
+                }
+                e = lazyRef.getTarget();
+            }
             
             if (seenEntities.contains(e)) {
                 writeReference(out, e);
@@ -307,15 +1502,24 @@ public class EntityPersister {
             
             boolean ePersisted = false;
             CascadeSpec currSpec = (CascadeSpec) context.getAttribute("cascadeSpec");
-            CascadeSpec subSpec = currSpec.getEffectiveSubSpecFor(sourcePath.getPathNotation());
+            CascadeSpec subSpec = currSpec.getEffectiveSubSpecFor(sourcePath);
+            if (subSpec.isDefaultCascade() && cascadeExecutor != null) {
+                persistConcurrently(sourcePath, e, subSpec);
+                writeReference(out, e);
+                return true;
+            }
             if (subSpec.isDefaultCascade()) {
                 //TODO: recursion may be less robust
+                LinkedList<PropertyPath> entitiesStack = this.entitiesStack.get();
                 entitiesStack.push(sourcePath);
                 try {
                     //TODO: configurability:
                     // - option to only persist non-loaded (new) entities (i.e. no updates)
                     // - ^^ but beware: even non-new entities may reference new ones
-                    persist(e, subObjectsIgnoreVersion, subSpec);
+                    String presetId = claimSubEntity(e);
+                    if (presetId != ALREADY_CLAIMED) {
+                        persist(e, presetId, subObjectsIgnoreVersion, subSpec);
+                    }
                     writeReference(out, e);
                     ePersisted = true;
                 } finally {
@@ -363,11 +1567,142 @@ public class EntityPersister {
     }
     
     
-    protected class Loader implements JsonUnmarshaller {
+    private void invalidateCached(String id) {
+        EntityCache cache = getEntityCache();
+        if (cache != null && id != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * @return the cached response for id if it is a document of type cls (or any
+     *         type if cls is null) in our index, null otherwise
+     */
+    private GetResponse getCached(String id, Class<?> cls) {
+        EntityCache cache = getEntityCache();
+        if (cache == null) {
+            return null;
+        }
+        GetResponse res = cache.get(id);
+        if (res == null || !getIndexName().equals(res.getIndex())) {
+            return null;
+        }
+        String type = cls == null ? null : cls.getSimpleName();
+        if (res.isExists()) {
+            return type == null || type.equals(res.getType()) ? res : null;
+        }
+        //non-existing documents of any type don't exist as documents of a particular type either
+        return res.getType() == null || res.getType().equals(type) ? res : null;
+    }
+
+    private void putCached(GetResponse res) {
+        EntityCache cache = getEntityCache();
+        if (cache != null) {
+            cache.put(res);
+        }
+    }
+
+    private static final Set<String> REFERENCE_KEYS = new HashSet<String>(Arrays.asList("_ref_id", "_ref_class"));
+
+    static class PendingWrite {
+        final Object entity;
+        final ActionRequestBuilder<?, ?, ?, ?> request;  //index or update request
+        final EntityFingerprint fingerprint;  //null if not needed
+
+        PendingWrite(Object entity, ActionRequestBuilder<?, ?, ?, ?> request, EntityFingerprint fingerprint) {
+            this.entity = entity;
+            this.request = request;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * @return size of the document (or partial document) in bytes
+         */
+        int getSourceSize() {
+            if (request instanceof UpdateRequestBuilder) {
+                return ((UpdateRequestBuilder) request).request().doc().source().length();
+            } else {
+                return ((IndexRequestBuilder) request).request().source().length();
+            }
+        }
+    }
+    
+    private static class PendingLoad {
+        final Object entity;
+        final CascadeSpec cascadeSpec;
+        final PropertyPath referencePath;
+        //level of the entity in the loaded object graph, 0 for the root entities
+        final int depth;
+        //max. multi-get size for the entity as declared by the reference's @Fetch annotation, 0 for the default
+        final int batchSize;
+
+        PendingLoad(Object entity, CascadeSpec cascadeSpec, PropertyPath referencePath, int depth, int batchSize) {
+            this.entity = entity;
+            this.cascadeSpec = cascadeSpec;
+            this.referencePath = referencePath;
+            this.depth = depth;
+            this.batchSize = batchSize;
+        }
+    }
+
+    protected class Loader implements JsonStreamUnmarshaller {
 
         private final LinkedList<PropertyPath> entitiesStack = new LinkedList<PropertyPath>();
-        //we assume the IDs are unique globally, not just per-type
+        //IDs are unique globally, not just per-type (see IdGenerator)
         private final Map<String, Object> seenEntitiesById = new HashMap<String, Object>();
+        //non-null in deferred mode, in which readJson only records the cascaded references instead of loading them
+        private List<PendingLoad> pendingLoads;
+        //lazy-loading proxies created by this loader, and those of them that haven't been loaded yet
+        private final Map<String, Object> lazyProxiesById = new HashMap<String, Object>();
+        private List<LazyReference> unresolvedLazyReferences = new ArrayList<LazyReference>();
+        //source includes of a projection load, null if whole documents are read
+        private String[] sourceIncludes;
+        //level of the entity currently being unmarshalled, and number of referenced entities cascaded into so far
+        private int depth = 0;
+        private int cascadedEntities = 0;
+        //configured once per operation, with a context per read entity
+        private final JsonConverter converter = createConverter();
+
+        protected JsonConverter createConverter() {
+            JsonConverter result = new JsonConverter();
+            result.registerUnmarshaller(this);
+            return result.freeze();
+        }
+
+        /**
+         * Make this a projection loader, which reads only the given properties
+         * of the documents, see {@link EntityPersister#findById(String, Class, Set)}.
+         * Projection loaders bypass the {@link EntityPersister#getEntityCache() cache}.
+         */
+        public void setProjection(Set<String> properties) {
+            if (properties.isEmpty()) {
+                throw new IllegalArgumentException("empty projection");
+            }
+            Set<String> includes = new LinkedHashSet<String>();
+            for (String path : properties) {
+                includes.add(path.replaceAll("\\[[^\\]]*\\]", ""));
+            }
+            sourceIncludes = includes.toArray(new String[includes.size()]);
+        }
+
+        /**
+         * @return the entity with the given id that has been loaded (or is being loaded)
+         *         by this loader, or null
+         */
+        public Object getSeenEntity(String id) {
+            return seenEntitiesById.get(id);
+        }
+
+        /**
+         * Make entity known to this loader, so references to id that are read
+         * later will be resolved to it. No-op if another entity with that id is
+         * known already.
+         */
+        public void addSeenEntity(String id, Object entity) {
+            if (!seenEntitiesById.containsKey(id)) {
+                seenEntitiesById.put(id, entity);
+            }
+        }
 
         public void load(Object entity, CascadeSpec cascadeSpec) {
             String id = EntityIntrospector.getId(entity);
@@ -390,27 +1725,381 @@ public class EntityPersister {
                 return;
             }
             seenEntitiesById.put(id, entity);
+            if (pendingLoads != null) {
+                //deferred mode, the caller loads the cascaded references
+                fill(res, entity, cascadeSpec);
+                return;
+            }
+            pendingLoads = new ArrayList<PendingLoad>();
+            try {
+                fill(res, entity, cascadeSpec);
+                loadPending();
+            } finally {
+                pendingLoads = null;
+            }
+        }
+
+        /**
+         * Load multiple root entities from their already read responses, and
+         * everything they cascade into. Root entities whose ids have been seen before
+         * are skipped, as are their duplicates in entities; references between the
+         * roots are resolved to the root instances.
+         * 
+         * @param responses
+         *            responses for the entities, in the same order
+         * @return the entities that don't exist (empty if all of them exist)
+         */
+        public Set<Object> load(List<GetResponse> responses, List<?> entities, CascadeSpec cascadeSpec) {
+            Set<Object> missing = new IdentityHashSet<Object>();
+            List<Object> roots = new ArrayList<Object>(entities.size());
+            List<GetResponse> rootResponses = new ArrayList<GetResponse>(entities.size());
+            for (int i = 0; i < entities.size(); i++) {
+                Object entity = entities.get(i);
+                String id = EntityIntrospector.getId(entity);
+                if (id == null) {
+                    throw new IllegalArgumentException("can't load entity with null ID: " + entity);
+                }
+                if (seenEntitiesById.containsKey(id)) {
+                    continue;
+                }
+                seenEntitiesById.put(id, entity);
+                if (responses.get(i).isExists()) {
+                    roots.add(entity);
+                    rootResponses.add(responses.get(i));
+                } else {
+                    missing.add(entity);
+                }
+            }
+            boolean deferred = pendingLoads != null;
+            if (!deferred) {
+                pendingLoads = new ArrayList<PendingLoad>();
+            }
+            try {
+                for (int i = 0; i < roots.size(); i++) {
+                    fill(rootResponses.get(i), roots.get(i), cascadeSpec);
+                }
+                if (!deferred) {
+                    loadPending();
+                }
+            } finally {
+                if (!deferred) {
+                    pendingLoads = null;
+                }
+            }
+            return missing;
+        }
+
+        /**
+         * Load the entities behind all lazy-loading proxies created by this loader
+         * that haven't been loaded yet, with as few multi-get requests as possible.
+         * References in those entities are loaded as proxies again.
+         */
+        synchronized void resolveLazyReferences() {
+            List<LazyReference> refs = unresolvedLazyReferences;
+            unresolvedLazyReferences = new ArrayList<LazyReference>();
+            List<String> ids = new ArrayList<String>(refs.size());
+            List<Class<?>> classes = new ArrayList<Class<?>>(refs.size());
+            List<Object> stubs = new ArrayList<Object>(refs.size());
+            for (LazyReference ref : refs) {
+                if (!seenEntitiesById.containsKey(ref.getId())) {
+                    ids.add(ref.getId());
+                    classes.add(ref.getTarget().getClass());
+                    stubs.add(ref.getTarget());
+                }
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("loading " + ids.size() + " lazy references");
+            }
+            Set<Object> missing = load(readRaw(ids, classes), stubs, CascadeSpec.noCascade());
+            for (LazyReference ref : refs) {
+                Object entity = seenEntitiesById.get(ref.getId());
+                if (missing.contains(entity)) {
+                    log.warn("lazily referenced entity not found (id=" + ref.getId() + "). Proxy points to stub (non-loaded) entity.");
+                }
+                ref.resolvedTo(entity);
+            }
+        }
+
+        /**
+         * Load the cascaded references recorded in pendingLoads breadth-first, i.e. all the
+         * references discovered at one level of the object graph are read with a
+         * single multi-get request (per {@link EntityPersister#getMaxMultiGetSize()} entities,
+         * or per {@link Fetch#batchSize()} entities for annotated references),
+         * then the references discovered in those are read, and so on.
+         */
+        private void loadPending() {
+            try {
+                while (!pendingLoads.isEmpty()) {
+                    Map<Integer, List<PendingLoad>> levelByBatchSize = new LinkedHashMap<Integer, List<PendingLoad>>();
+                    for (PendingLoad pl : pendingLoads) {
+                        List<PendingLoad> batch = levelByBatchSize.get(pl.batchSize);
+                        if (batch == null) {
+                            batch = new ArrayList<PendingLoad>();
+                            levelByBatchSize.put(pl.batchSize, batch);
+                        }
+                        batch.add(pl);
+                    }
+                    pendingLoads.clear();
+                    for (Map.Entry<Integer, List<PendingLoad>> e : levelByBatchSize.entrySet()) {
+                        loadPending(e.getValue(), e.getKey() > 0 ? e.getKey() : getMaxMultiGetSize());
+                    }
+                }
+            } finally {
+                depth = 0;
+            }
+        }
+
+        private void loadPending(List<PendingLoad> level, int batchSize) {
+            List<String> ids = new ArrayList<String>(level.size());
+            List<Class<?>> classes = new ArrayList<Class<?>>(level.size());
+            for (PendingLoad pl : level) {
+                ids.add(EntityIntrospector.getId(pl.entity));
+                classes.add(pl.entity.getClass());
+            }
+            List<GetResponse> responses = readRaw(ids, classes, batchSize);
+            for (int i = 0; i < level.size(); i++) {
+                PendingLoad pl = level.get(i);
+                depth = pl.depth;
+                try {
+                    fill(responses.get(i), pl.entity, pl.cascadeSpec);
+                } catch (EntityNotFoundException e) {
+                    //TODO: make this configurable via the CascadeSpec
+                    log.warn("referenced entity not found: " + pl.referencePath + " (id=" + ids.get(i) + "). Reference set to stub (non-loaded) entity.", e);
+                }
+            }
+        }
+
+        /**
+         * @return whether the entity referenced by targetPath may be cascaded into without
+         *         exceeding {@link EntityPersister#getMaxLoadDepth()} or {@link EntityPersister#getMaxLoadedEntities()}.
+         *         Counts it as cascaded into if so.
+         */
+        private boolean withinLoadLimits(PropertyPath targetPath, String id) {
+            if (depth + 1 > getMaxLoadDepth()) {
+                log.warn("max. load depth (" + getMaxLoadDepth() + ") exceeded: " + targetPath + " (id=" + id + "). Reference not loaded.");
+                return false;
+            }
+            if (cascadedEntities >= getMaxLoadedEntities()) {
+                log.warn("max. number of loaded entities (" + getMaxLoadedEntities() + ") exceeded: " + targetPath + " (id=" + id + "). Reference not loaded.");
+                return false;
+            }
+            cascadedEntities++;
+            return true;
+        }
+
+        /**
+         * Unmarshal res into entity, without checking whether entity has been seen before.
+         */
+        protected void fill(GetResponse res, Object entity, CascadeSpec cascadeSpec) {
+            String id = EntityIntrospector.getId(entity);
             if (!res.isExists()) {
                 throw new EntityNotFoundException("entity not found: type=" + entity.getClass() + ", id=" + id);
             }
-            JsonConverter jsc = new JsonConverter();
-            jsc.registerUnmarshaller(this);
-            jsc.setAttribute("cascadeSpec", cascadeSpec);
-            jsc.readJson(res.getSourceAsString(), entity);
+            JsonConverter jsc = converter.newContext();
+            jsc.setAttribute("cascadeSpec", cascadeSpec.compile());
+            try {
+                //streamed from the response's bytes, without building a string or JSON tree of it
+                jsc.readJson(new InputStreamReader(res.getSourceAsBytesRef().streamInput(), StandardCharsets.UTF_8), entity);
+            } catch (IOException e) {
+                throw new IllegalStateException("JSON read error: " + e.getLocalizedMessage(), e);
+            }
             //EntityIntrospector.setId(entity, res.getId());
-            if (EntityIntrospector.supportsVersion(entity)) {
+            boolean supportsVersion = EntityIntrospector.supportsVersion(entity);
+            if (supportsVersion) {
                 EntityIntrospector.setVersion(entity, res.getVersion());
             }
+            if (sourceIncludes != null) {
+                partiallyLoaded.put(entity, Boolean.TRUE);
+                if (EntityIntrospector.supportsLoadedFlag(entity)) {
+                    EntityIntrospector.setLoaded(entity, false);
+                }
+                return;
+            }
+            partiallyLoaded.remove(entity);
+            if (isDirtyChecking() || isPartialUpdates()) {
+                fingerprints.put(entity, EntityFingerprint.of(supportsVersion ? res.getVersion() : null,
+                        res.getSourceAsBytesRef(), isPartialUpdates()));
+            }
             if (EntityIntrospector.supportsLoadedFlag(entity)) {
                 EntityIntrospector.setLoaded(entity, true);
             }
         }
         
         public GetResponse readRaw(String id, Class<?> classOfT) {
-            GetRequestBuilder grb = getEsClient().prepareGet(getIndexName(), classOfT == null ? null : classOfT.getSimpleName(), id);
-            return grb.execute().actionGet();
+            if (sourceIncludes != null) {
+                return prepareGet(id, classOfT).setFetchSource(sourceIncludes, null).execute().actionGet();
+            }
+            GetResponse res = getCached(id, classOfT);
+            if (res == null) {
+                res = prepareGet(id, classOfT).execute().actionGet();
+                putCached(res);
+            }
+            return res;
+        }
+
+        /**
+         * Read multiple documents with multi-get requests of at most
+         * {@link EntityPersister#getMaxMultiGetSize()} documents each. Documents
+         * found in the {@link EntityPersister#getEntityCache() cache} aren't requested.
+         * 
+         * @param classes
+         *            entity classes of the ids, in the same order. Null elements
+         *            match documents of any type.
+         * @return the responses, in the order of ids
+         */
+        public List<GetResponse> readRaw(List<String> ids, List<Class<?>> classes) {
+            return readRaw(ids, classes, getMaxMultiGetSize());
+        }
+
+        /**
+         * Like {@link #readRaw(List, List)}, with multi-get requests of at most
+         * batchSize documents each.
+         */
+        public List<GetResponse> readRaw(List<String> ids, List<Class<?>> classes, int batchSize) {
+            GetResponse[] result = new GetResponse[ids.size()];
+            List<Integer> uncached = new ArrayList<Integer>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                result[i] = sourceIncludes == null ? getCached(ids.get(i), classes.get(i)) : null;
+                if (result[i] == null) {
+                    uncached.add(i);
+                }
+            }
+            for (int start = 0; start < uncached.size(); start += batchSize) {
+                int end = Math.min(uncached.size(), start + batchSize);
+                MultiGetRequestBuilder mgrb = getEsClient().prepareMultiGet();
+                for (int i = start; i < end; i++) {
+                    Class<?> cls = classes.get(uncached.get(i));
+                    MultiGetRequest.Item item = new MultiGetRequest.Item(getIndexName(), cls == null ? null : cls.getSimpleName(), ids.get(uncached.get(i)));
+                    if (sourceIncludes != null) {
+                        item.fetchSourceContext(new FetchSourceContext(sourceIncludes, null));
+                    }
+                    mgrb.add(item);
+                }
+                int i = start;
+                for (MultiGetItemResponse item : mgrb.execute().actionGet().getResponses()) {
+                    if (item.isFailed()) {
+                        throw new IllegalStateException("error reading entity (id=" + item.getId() + "): " +
+                                item.getFailure().getMessage());
+                    }
+                    if (sourceIncludes == null) {
+                        putCached(item.getResponse());
+                    }
+                    result[uncached.get(i++)] = item.getResponse();
+                }
+            }
+            return Arrays.asList(result);
+        }
+
+        protected GetRequestBuilder prepareGet(String id, Class<?> classOfT) {
+            return getEsClient().prepareGet(getIndexName(), classOfT == null ? null : classOfT.getSimpleName(), id);
+        }
+
+        /**
+         * Load entity and everything it cascades into asynchronously. The GET requests
+         * for cascaded references are sent as soon as the referencing entity's response
+         * has been unmarshalled, so the calling thread is never blocked. listener
+         * is notified when all of them have completed.
+         */
+        public void loadAsync(Object entity, CascadeSpec cascadeSpec, ActionListener<Void> listener) {
+            if (EntityIntrospector.getId(entity) == null) {
+                throw new IllegalArgumentException("can't load entity with null ID: " + entity);
+            }
+            synchronized (this) {
+                if (pendingLoads == null) {
+                    pendingLoads = new ArrayList<PendingLoad>();
+                }
+            }
+            new AsyncLoad(listener).start(entity, cascadeSpec, null, 0);
+        }
+
+        private class AsyncLoad {
+            private final AtomicInteger outstanding = new AtomicInteger();
+            private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            private final ActionListener<Void> listener;
+
+            public AsyncLoad(ActionListener<Void> listener) {
+                this.listener = listener;
+            }
+
+            /**
+             * @param referencePath null for the root entity
+             * @param depth level of entity in the object graph, 0 for the root entity
+             */
+            public void start(final Object entity, final CascadeSpec cascadeSpec, final PropertyPath referencePath, final int depth) {
+                outstanding.incrementAndGet();
+                final String id = EntityIntrospector.getId(entity);
+                final ActionListener<GetResponse> listener = new ActionListener<GetResponse>() {
+                    @Override
+                    public void onResponse(GetResponse res) {
+                        try {
+                            List<PendingLoad> next;
+                            synchronized (Loader.this) {
+                                Loader.this.depth = depth;
+                                if (referencePath == null) {
+                                    load(res, entity, cascadeSpec);
+                                } else {
+                                    try {
+                                        fill(res, entity, cascadeSpec);
+                                    } catch (EntityNotFoundException e) {
+                                        log.warn("referenced entity not found: " + referencePath + " (id=" + id + "). Reference set to stub (non-loaded) entity.", e);
+                                    }
+                                }
+                                next = new ArrayList<PendingLoad>(pendingLoads);
+                                pendingLoads.clear();
+                                Loader.this.depth = 0;
+                            }
+                            for (PendingLoad pl : next) {
+                                start(pl.entity, pl.cascadeSpec, pl.referencePath, pl.depth);
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                        done();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        failure.compareAndSet(null, e);
+                        done();
+                    }
+                };
+                GetResponse cached = getCached(id, entity.getClass());
+                if (cached != null) {
+                    listener.onResponse(cached);
+                } else {
+                    prepareGet(id, entity.getClass()).execute(new ActionListener<GetResponse>() {
+                        @Override
+                        public void onResponse(GetResponse res) {
+                            putCached(res);
+                            listener.onResponse(res);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            listener.onFailure(e);
+                        }
+                    });
+                }
+            }
+
+            private void done() {
+                if (outstanding.decrementAndGet() == 0) {
+                    Throwable e = failure.get();
+                    if (e == null) {
+                        listener.onResponse(null);
+                    } else {
+                        listener.onFailure(e);
+                    }
+                }
+            }
         }
         
+        @Override
+        public boolean handlesToken(JsonToken token) {
+            //references are objects
+            return token == JsonToken.BEGIN_OBJECT;
+        }
+
         @Override
         public boolean readJson(JsonElement src, PropertyPath targetPath,
                 JsonConverter context) throws IOException {
@@ -421,7 +2110,28 @@ public class EntityPersister {
             if (! src.isJsonObject()) {
                 return false;
             }
-            JsonObject jso = src.getAsJsonObject();
+            return readReference(src.getAsJsonObject(), targetPath, context);
+        }
+
+        @Override
+        public boolean readJson(JsonObject header, JsonReader source, PropertyPath targetPath,
+                JsonConverter context) throws IOException {
+            if (targetPath.getLength() == 1 || header == null) {
+                return false;
+            }
+            //the _ref_* properties are in the header
+            if (! readReference(header, targetPath, context)) {
+                return false;
+            }
+            while (source.hasNext()) {
+                source.nextName();
+                source.skipValue();
+            }
+            source.endObject();
+            return true;
+        }
+
+        private boolean readReference(JsonObject jso, PropertyPath targetPath, JsonConverter context) {
             if (! (jso.has("_ref_class") && jso.has("_ref_id"))) {
                 return false;
             }
@@ -458,9 +2168,24 @@ public class EntityPersister {
             EntityIntrospector.setId(instance, parsedId);
             targetPath.set(instance);
             CascadeSpec currSpec = (CascadeSpec) context.getAttribute("cascadeSpec");
-            CascadeSpec subSpec = currSpec.getEffectiveSubSpecFor(targetPath.getPathNotation());
-            if (subSpec.isDefaultCascade()) {
+            CascadeSpec subSpec = currSpec.getEffectiveSubSpecFor(targetPath);
+            boolean cascade = subSpec.isDefaultCascade() && withinLoadLimits(targetPath, parsedId);
+            if (!cascade && isLazyLoading() && targetClass.isInterface()) {
+                Object proxy = lazyProxiesById.get(parsedId);
+                if (proxy == null) {
+                    LazyReference ref = new LazyReference(this, instance);
+                    proxy = ref.newProxy();
+                    lazyProxiesById.put(parsedId, proxy);
+                    unresolvedLazyReferences.add(ref);
+                }
+                targetPath.set(proxy);
+            } else if (cascade && pendingLoads != null) {
+                seenEntitiesById.put(parsedId, instance);
+                Fetch fetch = FetchPlan.getFetch(targetPath);
+                pendingLoads.add(new PendingLoad(instance, subSpec, targetPath, depth + 1, fetch == null ? 0 : fetch.batchSize()));
+            } else if (cascade) {
                 entitiesStack.push(targetPath);
+                depth++;
                 try {
                     load(instance, subSpec);
                 } catch (EntityNotFoundException e) {
@@ -468,6 +2193,7 @@ public class EntityPersister {
                     //targetPath.set(null); //(alternative) set to null rather than a stub
                     log.warn("referenced entity not found: " + targetPath + " (id=" + parsedId + "). Reference set to stub (non-loaded) entity.", e);
                 } finally {
+                    depth--;
                     entitiesStack.pop();
                 }
             }
@@ -0,0 +1,184 @@
+package de.olafklischat.esmapper;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Unit of work on top of an {@link EntityPersister}. Obtained via
+ * {@link EntityPersister#openSession()}.
+ * <p>
+ * A session keeps an identity map of all the entities it has loaded or
+ * persisted, so finding an entity by an id that the session has seen before
+ * returns the same instance without reading it from ES again, and references to
+ * it that are read later are resolved to that instance as well.
+ * <p>
+ * Persist operations aren't executed immediately, but queued until
+ * {@link #flush()} or {@link #close()} is called, which write all queued
+ * entities (including the ones they cascade into) in as few bulk requests as
+ * possible. The entities are marshalled at flush time, i.e. any modifications
+ * made to them after persist() was called are written as well. Persisting an
+ * entity (or another entity with the same id) repeatedly before the flush
+ * writes it only once; the most recent ignoreVersion flag and cascade spec are used.
+ * <p>
+ * Sessions are not thread-safe.
+ *
+ * @author olaf
+ */
+public class EntitySession implements Closeable {
+
+    private final EntityPersister persister;
+    private final EntityPersister.Loader loader;
+    //keyed by id, or by IdentityKey for new entities
+    private final Map<Object, PendingPersist> pendingPersists = new LinkedHashMap<Object, PendingPersist>();
+    private boolean closed = false;
+
+    EntitySession(EntityPersister persister) {
+        this.persister = persister;
+        this.loader = persister.createLoader();
+    }
+
+    public EntityPersister getPersister() {
+        return persister;
+    }
+
+    public <T> T findById(String id, Class<T> classOfT) {
+        return findById(id, classOfT, CascadeSpec.noCascade());
+    }
+
+    /**
+     * Find the entity with the given id. If the session has seen the entity
+     * before, the known instance is returned as is, regardless of ccs.
+     *
+     * @return the entity, or null if it doesn't exist
+     */
+    public <T> T findById(String id, Class<T> classOfT, CascadeSpec ccs) {
+        checkOpen();
+        Object known = loader.getSeenEntity(id);
+        if (known != null) {
+            if (!classOfT.isInstance(known)) {
+                throw new IllegalStateException("entity " + id + " is already known to the session as a " +
+                        known.getClass().getName() + ", not a " + classOfT.getName());
+            }
+            return classOfT.cast(known);
+        }
+        return persister.findById(id, classOfT, ccs, loader);
+    }
+
+    public void load(Object entity) {
+        load(entity, CascadeSpec.cascade());
+    }
+
+    public void load(Object entity, CascadeSpec ccs) {
+        checkOpen();
+        loader.load(entity, ccs);
+    }
+
+    public <T> T persist(T entity) {
+        return persist(entity, false, CascadeSpec.cascade());
+    }
+
+    public <T> T persist(T entity, CascadeSpec ccs) {
+        return persist(entity, false, ccs);
+    }
+
+    /**
+     * Queue entity for being persisted by the next {@link #flush()}.
+     */
+    public <T> T persist(T entity, boolean ignoreVersion, CascadeSpec ccs) {
+        checkOpen();
+        String id = EntityIntrospector.getId(entity);
+        Object key = id != null ? id : new IdentityKey(entity);
+        pendingPersists.remove(key);  //re-add at the end
+        pendingPersists.put(key, new PendingPersist(entity, ignoreVersion, ccs));
+        return entity;
+    }
+
+    /**
+     * Write all queued entities.
+     *
+     * @throws BulkPersistException if any of the entities couldn't be written.
+     *         All the other entities will have been written nonetheless, and
+     *         the queue is empty afterwards in either case.
+     */
+    public void flush() {
+        checkOpen();
+        if (pendingPersists.isEmpty()) {
+            return;
+        }
+        EntityPersister.Persister p = persister.createPersister();
+        p.setBulk(true);
+        try {
+            for (PendingPersist pp : pendingPersists.values()) {
+                //no-op for entities reached by cascade from ones queued before
+                p.persist(pp.entity, pp.ignoreVersion, pp.cascadeSpec);
+            }
+            p.awaitCascades();
+            p.flush();
+        } finally {
+            pendingPersists.clear();
+            for (Object e : p.getSeenEntities()) {
+                String id = EntityIntrospector.getId(e);
+                if (id != null) {
+                    loader.addSeenEntity(id, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush the session and close it. Further operations will fail.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("session is closed");
+        }
+    }
+
+    private static class PendingPersist {
+        final Object entity;
+        final boolean ignoreVersion;
+        final CascadeSpec cascadeSpec;
+
+        PendingPersist(Object entity, boolean ignoreVersion, CascadeSpec cascadeSpec) {
+            this.entity = entity;
+            this.ignoreVersion = ignoreVersion;
+            this.cascadeSpec = cascadeSpec;
+        }
+    }
+
+    private static class IdentityKey {
+        final Object object;
+
+        IdentityKey(Object object) {
+            this.object = object;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(object);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IdentityKey && ((IdentityKey) obj).object == object;
+        }
+    }
+
+}
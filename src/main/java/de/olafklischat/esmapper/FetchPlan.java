@@ -0,0 +1,67 @@
+package de.olafklischat.esmapper;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.olafklischat.esmapper.annotations.Fetch;
+import de.olafklischat.esmapper.json.PropertyPath;
+
+/**
+ * The {@link Fetch} annotations of the properties of a class, read once per
+ * class.
+ *
+ * @author olaf
+ */
+class FetchPlan {
+
+    private static final ClassValue<FetchPlan> plansCache = new ClassValue<FetchPlan>() {
+        @Override
+        protected FetchPlan computeValue(Class<?> cl) {
+            return new FetchPlan(cl);
+        }
+    };
+
+    private final Map<String, Fetch> fetchByProperty = new HashMap<String, Fetch>();
+
+    private FetchPlan(Class<?> cl) {
+        try {
+            BeanInfo bi = Introspector.getBeanInfo(cl);
+            for (PropertyDescriptor pd : bi.getPropertyDescriptors()) {
+                if (pd.getReadMethod() != null) {
+                    Fetch fetch = pd.getReadMethod().getAnnotation(Fetch.class);
+                    if (fetch != null) {
+                        fetchByProperty.put(pd.getName(), fetch);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("error introspecting " + cl + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    public static FetchPlan of(Class<?> cl) {
+        return plansCache.get(cl);
+    }
+
+    public Fetch getFetch(String propertyName) {
+        return fetchByProperty.get(propertyName);
+    }
+
+    /**
+     * @return the annotation of the property that path leads to, or, if it leads to an element
+     *         of a collection or map, the annotation of the collection or map property. Null if there is none.
+     */
+    public static Fetch getFetch(PropertyPath path) {
+        for (PropertyPath p = path; p != null; p = p.getTail()) {
+            if (p.getHead().isPropertyAccess()) {
+                Object base = p.getBaseObject();
+                return base == null ? null : of(LazyReference.unwrap(base).getClass()).getFetch(p.getPropDescriptor().getName());
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,26 @@
+package de.olafklischat.esmapper;
+
+/**
+ * Generates the ids of new entities when they're persisted for the first time.
+ * Implementations must be thread-safe.
+ * <p>
+ * Ids must be unique across all entity types in the index, not just within
+ * each type: loaders, sessions and {@link EntityCache}s identify entities by id
+ * alone. So generators for different classes (see
+ * {@link EntityPersister#setIdGenerator(Class, IdGenerator)}) mustn't generate
+ * overlapping ids, e.g. per-type counters without a type prefix.
+ * 
+ * @see EntityPersister#setIdGenerator(IdGenerator)
+ * @see EntityPersister#setIdGenerator(Class, IdGenerator)
+ * @author olaf
+ */
+public interface IdGenerator {
+
+    /**
+     * @param entity
+     *            the new entity, whose id property is still null
+     * @return a new id, unique among the ids of all entities (of all types)
+     */
+    String generateId(Object entity);
+
+}
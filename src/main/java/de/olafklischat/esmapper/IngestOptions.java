@@ -0,0 +1,144 @@
+package de.olafklischat.esmapper;
+
+/**
+ * Options for {@link EntityPersister#ingest(java.util.Iterator, CascadeSpec, IngestOptions)}.
+ * The setters return this, so options can be chained:
+ * 
+ * <pre>
+ * new IngestOptions().setConcurrency(8).setMaxBulkBytes(10 * 1024 * 1024)
+ * </pre>
+ * 
+ * @author olaf
+ */
+public class IngestOptions {
+
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private int maxBulkActions = 1000;
+    private long maxBulkBytes = 5 * 1024 * 1024;
+    private int maxBulksInFlight = 2;
+    private int maxRetries = 5;
+    private long initialBackoffMillis = 50;
+    private boolean ignoreVersion = false;
+    private int maxReportedFailures = 100;
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Number of worker threads that marshal the entities.
+     */
+    public IngestOptions setConcurrency(int concurrency) {
+        checkPositive("concurrency", concurrency);
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public int getMaxBulkActions() {
+        return maxBulkActions;
+    }
+
+    /**
+     * Maximum number of documents per bulk request.
+     */
+    public IngestOptions setMaxBulkActions(int maxBulkActions) {
+        checkPositive("maxBulkActions", maxBulkActions);
+        this.maxBulkActions = maxBulkActions;
+        return this;
+    }
+
+    public long getMaxBulkBytes() {
+        return maxBulkBytes;
+    }
+
+    /**
+     * Size of the documents (in bytes) at which a bulk request is sent, even if it
+     * has fewer than {@link #getMaxBulkActions()} documents.
+     */
+    public IngestOptions setMaxBulkBytes(long maxBulkBytes) {
+        checkPositive("maxBulkBytes", maxBulkBytes);
+        this.maxBulkBytes = maxBulkBytes;
+        return this;
+    }
+
+    public int getMaxBulksInFlight() {
+        return maxBulksInFlight;
+    }
+
+    /**
+     * Maximum number of bulk requests that have been sent to ES but not yet
+     * completed. Marshalling blocks when this is reached.
+     */
+    public IngestOptions setMaxBulksInFlight(int maxBulksInFlight) {
+        checkPositive("maxBulksInFlight", maxBulksInFlight);
+        this.maxBulksInFlight = maxBulksInFlight;
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * How often documents rejected by ES (because its thread pools or queues are
+     * exhausted) are retried before they're reported as failures.
+     */
+    public IngestOptions setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative: " + maxRetries);
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * Delay before the first retry of rejected documents. Doubled for each further retry.
+     */
+    public IngestOptions setInitialBackoffMillis(long initialBackoffMillis) {
+        if (initialBackoffMillis < 0) {
+            throw new IllegalArgumentException("initialBackoffMillis must not be negative: " + initialBackoffMillis);
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    public boolean isIgnoreVersion() {
+        return ignoreVersion;
+    }
+
+    /**
+     * Whether to write the entities even if they're not up-to-date, as in
+     * {@link EntityPersister#persist(Object, boolean, CascadeSpec)}.
+     */
+    public IngestOptions setIgnoreVersion(boolean ignoreVersion) {
+        this.ignoreVersion = ignoreVersion;
+        return this;
+    }
+
+    public int getMaxReportedFailures() {
+        return maxReportedFailures;
+    }
+
+    /**
+     * Maximum number of failures to include in the {@link IngestResult}. Further
+     * failures are only counted.
+     */
+    public IngestOptions setMaxReportedFailures(int maxReportedFailures) {
+        if (maxReportedFailures < 0) {
+            throw new IllegalArgumentException("maxReportedFailures must not be negative: " + maxReportedFailures);
+        }
+        this.maxReportedFailures = maxReportedFailures;
+        return this;
+    }
+
+    private static void checkPositive(String name, long value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+    }
+
+}
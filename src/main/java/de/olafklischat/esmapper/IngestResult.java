@@ -0,0 +1,90 @@
+package de.olafklischat.esmapper;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics and failures of an
+ * {@link EntityPersister#ingest(java.util.Iterator, CascadeSpec, IngestOptions) ingestion}.
+ * 
+ * @author olaf
+ */
+public class IngestResult {
+
+    private final long entityCount;
+    private final long documentCount;
+    private final long failureCount;
+    private final long retryCount;
+    private final long bulkCount;
+    private final long elapsedMillis;
+    private final List<BulkPersistException.Failure> failures;
+
+    public IngestResult(long entityCount, long documentCount, long failureCount, long retryCount,
+            long bulkCount, long elapsedMillis, List<BulkPersistException.Failure> failures) {
+        this.entityCount = entityCount;
+        this.documentCount = documentCount;
+        this.failureCount = failureCount;
+        this.retryCount = retryCount;
+        this.bulkCount = bulkCount;
+        this.elapsedMillis = elapsedMillis;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return number of entities read from the input
+     */
+    public long getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * @return number of documents written successfully, including the ones of
+     *         cascaded entities
+     */
+    public long getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * @return number of entities that couldn't be written
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return the first {@link IngestOptions#getMaxReportedFailures()} failures
+     */
+    public List<BulkPersistException.Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return number of document writes that were retried after ES had rejected them
+     */
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return number of bulk requests sent, not counting retries
+     */
+    public long getBulkCount() {
+        return bulkCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public double getDocumentsPerSecond() {
+        return elapsedMillis == 0 ? 0 : documentCount * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entities, %d documents written (%.1f/s), %d failures, %d retries, %d bulks, %d ms",
+                entityCount, documentCount, getDocumentsPerSecond(), failureCount, retryCount, bulkCount, elapsedMillis);
+    }
+
+}
@@ -0,0 +1,250 @@
+package de.olafklischat.esmapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import com.google.common.collect.MapMaker;
+
+import de.olafklischat.esmapper.EntityPersister.PendingWrite;
+import de.olafklischat.esmapper.EntityPersister.Persister;
+
+/**
+ * A single run of {@link EntityPersister#ingest(Iterator, CascadeSpec, IngestOptions)}.
+ * <p>
+ * The calling thread reads the entities and hands them to a bounded pool of
+ * workers, which marshal them into bulk-mode Persisters and add the resulting
+ * writes to the current batch. Full batches are sent asynchronously, with a
+ * semaphore limiting the number of batches in flight (including the ones waiting for a retry).
+ * Backpressure propagates from the semaphore to the workers, and from the workers'
+ * bounded queue to the calling thread (which runs tasks itself when the queue is full).
+ *
+ * @author olaf
+ */
+class Ingestion {
+
+    private static final Logger log = Logger.getLogger(Ingestion.class);
+
+    private final EntityPersister persister;
+    private final CascadeSpec cascadeSpec;
+    private final IngestOptions options;
+    //used for the bookkeeping of written entities (written(), toException()), which doesn't depend on the Persister instance
+    private final Persister bookkeeper;
+    private final Semaphore bulksInFlight;
+    //sub-entities claimed by any worker's Persister, so ones shared between the ingested entities are written once.
+    //Weak identity keys.
+    private final Set<Object> sharedSubEntities = Collections.newSetFromMap(new MapMaker().weakKeys().<Object, Boolean>makeMap());
+
+    private final Object batchLock = new Object();
+    private List<PendingWrite> batch = new ArrayList<PendingWrite>();
+    private long batchBytes = 0;
+
+    private final AtomicLong entityCount = new AtomicLong();
+    private final AtomicLong documentCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong bulkCount = new AtomicLong();
+    private final List<BulkPersistException.Failure> failures = new ArrayList<BulkPersistException.Failure>();
+
+    Ingestion(EntityPersister persister, CascadeSpec cascadeSpec, IngestOptions options) {
+        this.persister = persister;
+        this.cascadeSpec = cascadeSpec;
+        this.options = options;
+        this.bookkeeper = persister.createPersister();
+        this.bulksInFlight = new Semaphore(options.getMaxBulksInFlight());
+    }
+
+    IngestResult run(Iterator<?> entities) {
+        long start = System.currentTimeMillis();
+        int concurrency = options.getConcurrency();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(2 * concurrency), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            while (entities.hasNext()) {
+                final Object entity = entities.next();
+                entityCount.incrementAndGet();
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        marshal(entity);
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            awaitTermination(workers);
+        }
+        List<PendingWrite> lastBatch;
+        synchronized (batchLock) {
+            lastBatch = takeBatch();
+        }
+        if (!lastBatch.isEmpty()) {
+            send(lastBatch);
+        }
+        //wait for all bulks to complete
+        bulksInFlight.acquireUninterruptibly(options.getMaxBulksInFlight());
+        bulksInFlight.release(options.getMaxBulksInFlight());
+
+        List<BulkPersistException.Failure> reportedFailures;
+        synchronized (failures) {
+            reportedFailures = new ArrayList<BulkPersistException.Failure>(failures);
+        }
+        IngestResult result = new IngestResult(entityCount.get(), documentCount.get(), failureCount.get(),
+                retryCount.get(), bulkCount.get(), System.currentTimeMillis() - start, reportedFailures);
+        if (log.isDebugEnabled()) {
+            log.debug("ingestion finished: " + result);
+        }
+        return result;
+    }
+
+    private void awaitTermination(ThreadPoolExecutor workers) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void marshal(Object entity) {
+        List<PendingWrite> writes;
+        try {
+            Persister p = persister.createPersister();
+            p.setBulk(true);
+            p.setSharedSubEntities(sharedSubEntities);
+            p.persist(entity, options.isIgnoreVersion(), cascadeSpec);
+            p.awaitCascades();
+            writes = p.takePendingWrites();
+        } catch (RuntimeException e) {
+            failed(entity, e);
+            return;
+        }
+        for (PendingWrite pw : writes) {
+            List<PendingWrite> fullBatch = null;
+            synchronized (batchLock) {
+                batch.add(pw);
+                batchBytes += pw.getSourceSize();
+                if (batch.size() >= options.getMaxBulkActions() || batchBytes >= options.getMaxBulkBytes()) {
+                    fullBatch = takeBatch();
+                }
+            }
+            if (fullBatch != null) {
+                send(fullBatch);
+            }
+        }
+    }
+
+    private List<PendingWrite> takeBatch() {
+        List<PendingWrite> result = batch;
+        batch = new ArrayList<PendingWrite>();
+        batchBytes = 0;
+        return result;
+    }
+
+    private void send(List<PendingWrite> chunk) {
+        bulksInFlight.acquireUninterruptibly();  //released when the chunk is done, including retries
+        bulkCount.incrementAndGet();
+        if (log.isDebugEnabled()) {
+            log.debug("sending bulk request with " + chunk.size() + " entities");
+        }
+        execute(chunk, 0);
+    }
+
+    private void execute(final List<PendingWrite> chunk, final int attempt) {
+        ActionListener<BulkResponse> listener = new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse res) {
+                List<PendingWrite> rejected = new ArrayList<PendingWrite>();
+                for (BulkItemResponse item : res.getItems()) {
+                    PendingWrite pw = chunk.get(item.getItemId());
+                    if (!item.isFailed()) {
+                        bookkeeper.written(pw.entity, pw.request, item.getId(), item.getVersion(), pw.fingerprint);
+                        documentCount.incrementAndGet();
+                    } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS && attempt < options.getMaxRetries()) {
+                        rejected.add(pw);
+                    } else {
+                        failed(pw.entity, bookkeeper.toException(pw.entity, item));
+                    }
+                }
+                retryOrFinish(rejected, attempt);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException && attempt < options.getMaxRetries()) {
+                    retryOrFinish(chunk, attempt);
+                    return;
+                }
+                for (PendingWrite pw : chunk) {
+                    failed(pw.entity, new IllegalStateException("bulk request failed: " + e.getLocalizedMessage(), e));
+                }
+                bulksInFlight.release();
+            }
+        };
+        try {
+            bookkeeper.createBulkRequest(chunk).execute(listener);
+        } catch (RuntimeException e) {
+            listener.onFailure(e);
+        }
+    }
+
+    private void retryOrFinish(final List<PendingWrite> rejected, final int attempt) {
+        if (rejected.isEmpty()) {
+            bulksInFlight.release();
+            return;
+        }
+        retryCount.addAndGet(rejected.size());
+        long backoff = options.getInitialBackoffMillis() << attempt;
+        if (log.isDebugEnabled()) {
+            log.debug(rejected.size() + " documents rejected, retrying in " + backoff + " ms");
+        }
+        try {
+            persister.getEsClient().threadPool().schedule(TimeValue.timeValueMillis(backoff), ThreadPool.Names.GENERIC, new Runnable() {
+                @Override
+                public void run() {
+                    execute(rejected, attempt + 1);
+                }
+            });
+        } catch (RuntimeException e) {
+            for (PendingWrite pw : rejected) {
+                failed(pw.entity, new IllegalStateException("couldn't schedule retry: " + e.getLocalizedMessage(), e));
+            }
+            bulksInFlight.release();
+        }
+    }
+
+    private void failed(Object entity, RuntimeException cause) {
+        failureCount.incrementAndGet();
+        log.warn("couldn't ingest " + entity + ": " + cause.getLocalizedMessage());
+        synchronized (failures) {
+            if (failures.size() < options.getMaxReportedFailures()) {
+                failures.add(new BulkPersistException.Failure(entity, cause));
+            }
+        }
+    }
+
+}
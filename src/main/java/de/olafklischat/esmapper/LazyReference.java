@@ -0,0 +1,118 @@
+package de.olafklischat.esmapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Invocation handler of the lazy-loading proxies created for non-cascaded
+ * references if {@link EntityPersister#setLazyLoading(boolean) lazy loading}
+ * is enabled. The proxy implements all the interfaces of the referenced entity's
+ * class and delegates to a stub instance of that class, which is loaded
+ * (together with the stubs of all other proxies of the same Loader that
+ * haven't been loaded yet) on the first call of any method other than the
+ * id getter.
+ *
+ * @author olaf
+ */
+class LazyReference implements InvocationHandler {
+
+    private final EntityPersister.Loader loader;
+    private Object target;
+    private boolean resolved = false;
+
+    LazyReference(EntityPersister.Loader loader, Object stub) {
+        this.loader = loader;
+        this.target = stub;
+    }
+
+    Object newProxy() {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+            addInterfaces(c, interfaces);
+        }
+        return Proxy.newProxyInstance(target.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]), this);
+    }
+
+    private static void addInterfaces(Class<?> c, Set<Class<?>> result) {
+        for (Class<?> i : c.getInterfaces()) {
+            if (result.add(i)) {
+                addInterfaces(i, result);
+            }
+        }
+    }
+
+    /**
+     * @return the handler of obj if it is a lazy-loading proxy, null otherwise
+     */
+    static LazyReference of(Object obj) {
+        //the instanceof check spares non-proxies isProxyClass(), which is synchronized on some JDKs
+        if (obj instanceof Proxy && Proxy.isProxyClass(obj.getClass())) {
+            InvocationHandler h = Proxy.getInvocationHandler(obj);
+            if (h instanceof LazyReference) {
+                return (LazyReference) h;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the entity behind obj if obj is a lazy-loading proxy (without loading it), obj otherwise
+     */
+    static Object unwrap(Object obj) {
+        LazyReference ref = of(obj);
+        return ref == null ? obj : ref.target;
+    }
+
+    String getId() {
+        return EntityIntrospector.getId(target);
+    }
+
+    Object getTarget() {
+        return target;
+    }
+
+    boolean isResolved() {
+        synchronized (loader) {
+            return resolved;
+        }
+    }
+
+    /**
+     * Called by the loader with the loaded entity (which may be an instance
+     * the loader has loaded before, rather than the stub).
+     */
+    void resolvedTo(Object entity) {
+        target = entity;
+        resolved = true;
+    }
+
+    private Object resolve() {
+        synchronized (loader) {
+            if (!resolved) {
+                loader.resolveLazyReferences();
+            }
+            return target;
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0] || resolve().equals(unwrap(args[0]));
+            }
+        }
+        Object t = EntityIntrospector.isIdReadMethod(target, method) ? target : resolve();
+        try {
+            return method.invoke(t, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
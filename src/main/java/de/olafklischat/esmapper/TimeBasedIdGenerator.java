@@ -0,0 +1,68 @@
+package de.olafklischat.esmapper;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import org.elasticsearch.common.Base64;
+
+/**
+ * Generates compact, roughly time-ordered 20-character ids. Each id consists
+ * of a 48 bit millisecond timestamp, a 48 bit per-thread random node id and a
+ * 24 bit per-thread sequence number, encoded with the order-preserving Base64
+ * alphabet, so ids generated later sort after ids generated earlier (modulo clock
+ * differences between threads and machines). Ids of entities created close
+ * together share prefixes, which is good for the locality of ES's term dictionary.
+ * <p>
+ * The generator keeps all its state per thread, so no synchronization or
+ * shared random number generator is involved after the first id has been
+ * generated in a thread. Ids are unique as long as no thread generates more
+ * than 2^24 ids within the same millisecond.
+ * 
+ * @author olaf
+ */
+public class TimeBasedIdGenerator implements IdGenerator {
+
+    private static final SecureRandom nodeIdRandom = new SecureRandom();
+
+    private static class ThreadState {
+        final byte[] nodeId = new byte[6];
+        long lastTimestamp;
+        int sequence;
+
+        ThreadState() {
+            synchronized (nodeIdRandom) {
+                nodeIdRandom.nextBytes(nodeId);
+            }
+        }
+    }
+
+    private static final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+
+    @Override
+    public String generateId(Object entity) {
+        ThreadState state = threadState.get();
+        long timestamp = Math.max(System.currentTimeMillis(), state.lastTimestamp);  //never go backwards
+        state.lastTimestamp = timestamp;
+        state.sequence = (state.sequence + 1) & 0xffffff;
+
+        byte[] bytes = new byte[15];
+        for (int i = 0; i < 6; i++) {
+            bytes[i] = (byte) (timestamp >>> (8 * (5 - i)));
+        }
+        System.arraycopy(state.nodeId, 0, bytes, 6, 6);
+        bytes[12] = (byte) (state.sequence >>> 16);
+        bytes[13] = (byte) (state.sequence >>> 8);
+        bytes[14] = (byte) state.sequence;
+        try {
+            return Base64.encodeBytes(bytes, 0, bytes.length, Base64.ORDERED);
+        } catch (IOException e) {
+            throw new IllegalStateException("shouldn't happen", e);  //only thrown when compressing
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package de.olafklischat.esmapper;
+
+import java.util.UUID;
+
+/**
+ * Generates random (type 4) UUIDs as ids, i.e. 36-character strings.
+ * This was the only id format supported by earlier versions of esmapper.
+ * 
+ * @author olaf
+ */
+public class UuidIdGenerator implements IdGenerator {
+
+    @Override
+    public String generateId(Object entity) {
+        return UUID.randomUUID().toString();
+    }
+
+}
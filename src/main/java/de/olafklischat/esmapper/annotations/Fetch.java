@@ -0,0 +1,40 @@
+package de.olafklischat.esmapper.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import javax.persistence.FetchType;
+
+/**
+ * Annotation to add to a property of an entity (its getter method, specifically)
+ * that references other entities, to declare how load and persist operations with a
+ * {@link de.olafklischat.esmapper.CascadeSpec#fetchPlan() fetch plan} CascadeSpec
+ * should cascade into them. EAGER properties are cascaded into, LAZY ones aren't
+ * (see {@link de.olafklischat.esmapper.EntityPersister#setLazyLoading(boolean)}
+ * for loading them lazily).
+ *
+ * @author olaf
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Fetch {
+
+    FetchType value();
+
+    /**
+     * Maximum number of levels of entities to cascade into through this
+     * property, e.g. 1 to cascade into the referenced entities, but not into
+     * the ones they reference (regardless of their annotations).
+     */
+    int maxDepth() default Integer.MAX_VALUE;
+
+    /**
+     * Maximum number of entities referenced through this property that are
+     * read in a single multi-get request. 0 (the default) for
+     * {@link de.olafklischat.esmapper.EntityPersister#getMaxMultiGetSize()}.
+     */
+    int batchSize() default 0;
+
+}
@@ -0,0 +1,35 @@
+package de.olafklischat.esmapper.json;
+
+/**
+ * Reflection-free access to the properties of a bean class, normally
+ * generated at build time (see
+ * {@link de.olafklischat.esmapper.processor.EntityCodecProcessor}).
+ * <p>
+ * The codec of a class <code>com.example.Foo</code> must be named
+ * <code>com.example.Foo_EsCodec</code> (<code>{@link #CLASS_SUFFIX}</code>) and have
+ * a public no-arg constructor. If it exists, {@link PropertyAccessor}s, and thus
+ * {@link JsonConverter} and the entity persister, use it instead of reflection.
+ * Properties it doesn't cover are accessed via reflection as usual.
+ *
+ * @author olaf
+ */
+public interface BeanCodec<T> {
+
+    public static final String CLASS_SUFFIX = "_EsCodec";
+
+    /**
+     * @return names of the properties this codec supports, the indices of
+     *         which are passed to {@link #get(Object, int)} and
+     *         {@link #set(Object, int, Object)}
+     */
+    String[] getPropertyNames();
+
+    boolean isReadable(int property);
+
+    boolean isWritable(int property);
+
+    Object get(T bean, int property);
+
+    void set(T bean, int property, Object value);
+
+}
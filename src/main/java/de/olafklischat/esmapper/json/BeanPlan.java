@@ -0,0 +1,72 @@
+package de.olafklischat.esmapper.json;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import de.olafklischat.esmapper.json.annotations.JsonIgnore;
+
+/**
+ * What the default bean marshaller and unmarshaller need to know about a bean
+ * class, compiled once per class: the name to write as <code>_class</code>, the properties
+ * to marshal in order, and the {@link PropertyAccessor}s of all properties by name.
+ * Property annotations like {@link JsonIgnore} or
+ * {@link de.olafklischat.esmapper.json.annotations.ImplClass} are cached in the accessors.
+ *
+ * @author olaf
+ */
+public final class BeanPlan {
+
+    private static final ClassValue<BeanPlan> plansCache = new ClassValue<BeanPlan>() {
+        @Override
+        protected BeanPlan computeValue(Class<?> cl) {
+            return new BeanPlan(cl);
+        }
+    };
+
+    private final String className;
+    private final List<PropertyAccessor> marshalledProperties;
+    private final Map<String, PropertyAccessor> properties;
+
+    private BeanPlan(Class<?> cl) {
+        this.className = cl.getCanonicalName();
+        this.properties = PropertyAccessor.of(cl);
+        List<PropertyAccessor> marshalled = new ArrayList<PropertyAccessor>();
+        for (PropertyAccessor pa : properties.values()) {
+            //@JsonIgnore properties would be rejected by the JsonIgnoreMarshallingFilter, which every converter has
+            if ("class".equals(pa.getName()) || pa.getAnnotation(JsonIgnore.class) != null) { //TODO: exclude anything from j.l.Object?
+                continue;
+            }
+            marshalled.add(pa);
+        }
+        this.marshalledProperties = Collections.unmodifiableList(marshalled);
+    }
+
+    public static BeanPlan of(Class<?> cl) {
+        return plansCache.get(cl);
+    }
+
+    /**
+     * @return the canonical name of the class
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the properties to marshal, in order, i.e. all except "class"
+     *         and those annotated with {@link JsonIgnore}
+     */
+    public List<PropertyAccessor> getMarshalledProperties() {
+        return marshalledProperties;
+    }
+
+    /**
+     * @return the accessor of the property of the given name, null if there is none
+     */
+    public PropertyAccessor getProperty(String name) {
+        return properties.get(name);
+    }
+
+}
@@ -1,20 +1,34 @@
 package de.olafklischat.esmapper.json;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.Deque;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.internal.Streams;
 import com.google.gson.internal.bind.JsonTreeWriter;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
 import de.olafklischat.esmapper.json.annotations.JsonIgnore;
 import de.olafklischat.esmapper.json.stdimpl.DefaultArrayMarshaller;
@@ -51,6 +65,20 @@ import de.olafklischat.esmapper.json.stdimpl.JsonIgnoreMarshallingFilter;
  * that you can use the same JsonConverter instance from multiple threads as long
  * as you take care not to modify the marshaller/unmarshaller list or the attributes
  * concurrently.
+ * <p>
+ * For using a configuration many times, {@link #freeze() freeze} it and create a
+ * lightweight {@link #newContext() context} for each operation, which
+ * shares the configuration and has its own attributes.
+ * <p>
+ * Marshallers and unmarshallers that declare the value types or JSON element
+ * kinds they handle ({@link TypedJsonMarshaller}, {@link TypedJsonUnmarshaller})
+ * are only called for those. The resulting handler chains are cached per value
+ * type and element kind (for the default handlers always, for the whole configuration
+ * once it's frozen).
+ * <p>
+ * Input read from a {@link Reader} or {@link JsonReader} is unmarshalled in one pass
+ * without building a JSON tree of it first, as long as the unmarshallers are
+ * {@link JsonStreamUnmarshaller}s, which the default ones are.
  * 
  * @author Olaf Klischat
  *
@@ -60,28 +88,225 @@ public class JsonConverter {
     //implement our own object mapper/unmapper on top of Gson's low-level JSON streaming API
     // Gson's object mapper doesn't support everything we need
 
-    private final Deque<JsonMarshallingFilter> marshallingFilters = new LinkedList<JsonMarshallingFilter>();
-    private final Deque<JsonMarshaller> marshallers = new LinkedList<JsonMarshaller>();
-    private final Deque<JsonUnmarshaller> unmarshallers = new LinkedList<JsonUnmarshaller>();
+    //the default marshallers, filters and unmarshallers are stateless and shared by all instances
+
+    private static final JsonMarshaller[] DEFAULT_MARSHALLERS = {
+        new DefaultNullMarshaller(),
+        new DefaultNumberMarshaller(),
+        new DefaultBooleanMarshaller(),
+        new DefaultStringMarshaller(),
+        new DefaultCollectionMarshaller(),
+        new DefaultArrayMarshaller(),
+        new DefaultMapMarshaller(),
+        new DefaultBeanMarshaller()
+    };
+    private static final JsonMarshallingFilter[] DEFAULT_MARSHALLING_FILTERS = {
+        new JsonIgnoreMarshallingFilter()
+    };
+    private static final JsonUnmarshaller[] DEFAULT_UNMARSHALLERS = {
+        new DefaultNullUnmarshaller(),
+        new DefaultBooleanUnmarshaller(),
+        new DefaultStringUnmarshaller(),
+        new DefaultNumberUnmarshaller(),
+        new DefaultArrayUnmarshaller(),
+        new DefaultObjectUnmarshaller()
+    };
+
+    //chains of the default handlers that handle a value type / JSON element kind
+    private static final ClassValue<JsonMarshaller[]> defaultMarshallerChains = new ClassValue<JsonMarshaller[]>() {
+        @Override
+        protected JsonMarshaller[] computeValue(Class<?> type) {
+            return filterMarshallers(DEFAULT_MARSHALLERS, type, new ArrayList<JsonMarshaller>());
+        }
+    };
+    private static final JsonMarshaller[] DEFAULT_NULL_MARSHALLER_CHAIN =
+            filterMarshallers(DEFAULT_MARSHALLERS, null, new ArrayList<JsonMarshaller>());
+    private static final Map<JsonToken, JsonUnmarshaller[]> DEFAULT_UNMARSHALLER_CHAINS = unmarshallerChains(new JsonUnmarshaller[0]);
+    
+    //in the order in which they're called; replaced rather than modified on registration.
+    //(un)marshallers contain the registered ones only, the defaults are called after them
+    private JsonMarshallingFilter[] marshallingFilters = DEFAULT_MARSHALLING_FILTERS;
+    private JsonMarshaller[] marshallers = new JsonMarshaller[0];
+    private JsonUnmarshaller[] unmarshallers = new JsonUnmarshaller[0];
+    private boolean frozen = false;
+    //handler chains for the registered (un)marshallers, created on demand and dropped on
+    //registration (shared with contexts)
+    private HandlerChains chains;
     
-    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    //created on demand
+    private Map<String, Object> attributes;
+    //for contexts: the converter whose attributes are visible unless overridden
+    private final JsonConverter parent;
     
     public JsonConverter() {
-        registerMarshaller(new DefaultBeanMarshaller());
-        registerMarshaller(new DefaultMapMarshaller());
-        registerMarshaller(new DefaultArrayMarshaller());
-        registerMarshaller(new DefaultCollectionMarshaller());
-        registerMarshaller(new DefaultStringMarshaller());
-        registerMarshaller(new DefaultBooleanMarshaller());
-        registerMarshaller(new DefaultNumberMarshaller());
-        registerMarshaller(new DefaultNullMarshaller());
-        registerMarshallingFilter(new JsonIgnoreMarshallingFilter());
-        registerUnmarshaller(new DefaultObjectUnmarshaller());
-        registerUnmarshaller(new DefaultArrayUnmarshaller());
-        registerUnmarshaller(new DefaultNumberUnmarshaller());
-        registerUnmarshaller(new DefaultStringUnmarshaller());
-        registerUnmarshaller(new DefaultBooleanUnmarshaller());
-        registerUnmarshaller(new DefaultNullUnmarshaller());
+        this.parent = null;
+    }
+
+    private JsonConverter(JsonConverter parent) {
+        this.parent = parent;
+        this.marshallingFilters = parent.marshallingFilters;
+        this.marshallers = parent.marshallers;
+        this.unmarshallers = parent.unmarshallers;
+        this.frozen = true;
+        //the chains are a snapshot of the parent's current configuration
+        this.chains = parent.getChains();
+    }
+
+    private static JsonMarshaller[] filterMarshallers(JsonMarshaller[] marshallers, Class<?> type, List<JsonMarshaller> result) {
+        for (JsonMarshaller m : marshallers) {
+            if (!(m instanceof TypedJsonMarshaller) || ((TypedJsonMarshaller) m).handlesType(type)) {
+                result.add(m);
+            }
+        }
+        return result.toArray(new JsonMarshaller[result.size()]);
+    }
+
+    private static Map<JsonToken, JsonUnmarshaller[]> unmarshallerChains(JsonUnmarshaller[] unmarshallers) {
+        Map<JsonToken, JsonUnmarshaller[]> result = new EnumMap<JsonToken, JsonUnmarshaller[]>(JsonToken.class);
+        for (JsonToken token : JsonToken.values()) {
+            result.put(token, unmarshallerChain(unmarshallers, token));
+        }
+        return result;
+    }
+
+    private static JsonUnmarshaller[] unmarshallerChain(JsonUnmarshaller[] unmarshallers, JsonToken token) {
+        List<JsonUnmarshaller> chain = new ArrayList<JsonUnmarshaller>();
+        for (JsonUnmarshaller[] ums : Arrays.asList(unmarshallers, DEFAULT_UNMARSHALLERS)) {
+            for (JsonUnmarshaller um : ums) {
+                if (!(um instanceof TypedJsonUnmarshaller) || ((TypedJsonUnmarshaller) um).handlesToken(token)) {
+                    chain.add(um);
+                }
+            }
+        }
+        return chain.toArray(new JsonUnmarshaller[chain.size()]);
+    }
+
+    private static JsonMarshaller[] resolveMarshallerChain(JsonMarshaller[] marshallers, Class<?> type) {
+        JsonMarshaller[] defaultChain = type == null ? DEFAULT_NULL_MARSHALLER_CHAIN : defaultMarshallerChains.get(type);
+        List<JsonMarshaller> result = new ArrayList<JsonMarshaller>(marshallers.length + defaultChain.length);
+        filterMarshallers(marshallers, type, result);
+        result.addAll(Arrays.asList(defaultChain));
+        return result.toArray(new JsonMarshaller[result.size()]);
+    }
+
+    /**
+     * The handler chains for a configuration of registered (un)marshallers.
+     * Immutable except for the marshaller chains being added by type as needed,
+     * so it may be published without synchronization.
+     */
+    private static final class HandlerChains {
+        private final JsonMarshaller[] marshallers;
+        private final ConcurrentMap<Class<?>, JsonMarshaller[]> marshallerChains = new ConcurrentHashMap<Class<?>, JsonMarshaller[]>();
+        private final JsonMarshaller[] nullMarshallerChain;
+        private final Map<JsonToken, JsonUnmarshaller[]> unmarshallerChains;
+
+        HandlerChains(JsonMarshaller[] marshallers, JsonUnmarshaller[] unmarshallers) {
+            this.marshallers = marshallers;
+            this.nullMarshallerChain = resolveMarshallerChain(marshallers, null);
+            this.unmarshallerChains = unmarshallerChains(unmarshallers);
+        }
+
+        JsonMarshaller[] getMarshallerChain(Class<?> type) {
+            if (type == null) {
+                return nullMarshallerChain;
+            }
+            JsonMarshaller[] result = marshallerChains.get(type);
+            if (result == null) {
+                result = resolveMarshallerChain(marshallers, type);
+                marshallerChains.putIfAbsent(type, result);
+            }
+            return result;
+        }
+
+        JsonUnmarshaller[] getUnmarshallerChain(JsonToken token) {
+            return unmarshallerChains.get(token);
+        }
+    }
+
+    private HandlerChains getChains() {
+        HandlerChains result = chains;
+        if (result == null) {
+            result = new HandlerChains(marshallers, unmarshallers);
+            chains = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the marshallers to call for a value of the given type (null for null values), in order
+     */
+    private JsonMarshaller[] getMarshallerChain(Class<?> type) {
+        if (marshallers.length == 0) {
+            return type == null ? DEFAULT_NULL_MARSHALLER_CHAIN : defaultMarshallerChains.get(type);
+        }
+        return getChains().getMarshallerChain(type);
+    }
+
+    private JsonUnmarshaller[] getUnmarshallerChain(JsonToken token) {
+        if (unmarshallers.length == 0) {
+            return DEFAULT_UNMARSHALLER_CHAINS.get(token);
+        }
+        return getChains().getUnmarshallerChain(token);
+    }
+
+    private static JsonToken tokenOf(JsonElement source) {
+        if (source == null || source.isJsonNull()) {
+            return JsonToken.NULL;
+        } else if (source.isJsonObject()) {
+            return JsonToken.BEGIN_OBJECT;
+        } else if (source.isJsonArray()) {
+            return JsonToken.BEGIN_ARRAY;
+        }
+        JsonPrimitive jsp = source.getAsJsonPrimitive();
+        if (jsp.isBoolean()) {
+            return JsonToken.BOOLEAN;
+        } else if (jsp.isNumber()) {
+            return JsonToken.NUMBER;
+        } else {
+            return JsonToken.STRING;
+        }
+    }
+
+    /**
+     * Disallow further registrations of marshallers, unmarshallers and
+     * filters. Attributes may still be set.
+     * 
+     * @return this
+     */
+    public JsonConverter freeze() {
+        if (!frozen) {
+            frozen = true;
+            getChains();
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Create a lightweight, {@link #isFrozen() frozen} converter that uses the same
+     * marshallers, unmarshallers and filters as this one. Its attributes are
+     * separate, but attributes of this converter that aren't set in the
+     * context are visible in it as well. Meant to be created per
+     * (un)marshalling operation, from a converter that has been frozen.
+     */
+    public JsonConverter newContext() {
+        return new JsonConverter(this);
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("JsonConverter is frozen");
+        }
+    }
+
+    private static <T> T[] prepend(T element, T[] array) {
+        T[] result = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, 0, result, 1, array.length);
+        result[0] = element;
+        return result;
     }
 
     /**
@@ -94,7 +319,10 @@ public class JsonConverter {
      * @param filter
      */
     public void registerMarshallingFilter(JsonMarshallingFilter filter) {
-        marshallingFilters.add(filter);
+        checkNotFrozen();
+        JsonMarshallingFilter[] filters = Arrays.copyOf(marshallingFilters, marshallingFilters.length + 1);
+        filters[marshallingFilters.length] = filter;
+        marshallingFilters = filters;
     }
     
     /**
@@ -109,7 +337,9 @@ public class JsonConverter {
      * @param m
      */
     public void registerMarshaller(JsonMarshaller m) {
-        marshallers.addFirst(m);
+        checkNotFrozen();
+        marshallers = prepend(m, marshallers);
+        chains = null;
     }
     
     /**
@@ -125,7 +355,9 @@ public class JsonConverter {
      * @param m
      */
     public void registerUnmarshaller(JsonUnmarshaller um) {
-        unmarshallers.addFirst(um);
+        checkNotFrozen();
+        unmarshallers = prepend(um, unmarshallers);
+        chains = null;
     }
 
     /**
@@ -138,11 +370,17 @@ public class JsonConverter {
      * @param value
      */
     public void setAttribute(String name, Object value) {
+        if (attributes == null) {
+            attributes = new HashMap<String, Object>(4);
+        }
         attributes.put(name, value);
     }
     
     public Object getAttribute(String name) {
-        return attributes.get(name);
+        if (attributes != null && attributes.containsKey(name)) {
+            return attributes.get(name);
+        }
+        return parent == null ? null : parent.getAttribute(name);
     }
 
     //// Serialization (Object->JSON)
@@ -164,6 +402,17 @@ public class JsonConverter {
         }
     }
     
+    /**
+     * Write src as UTF-8 encoded JSON into out, without creating an intermediate
+     * String. out is flushed, but not closed.
+     */
+    public void writeJson(Object src, OutputStream out) throws IOException {
+        JsonWriter jsw = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        jsw.setLenient(true);
+        writeJson(src, jsw);
+        jsw.flush();
+    }
+    
     public JsonElement toJsonElement(Object src) {
         JsonTreeWriter jsw = new JsonTreeWriter();
         try {
@@ -195,7 +444,8 @@ public class JsonConverter {
      * @throws IOException
      */
     public void writeJson(PropertyPath sourcePath, JsonWriter out) throws IOException {
-        for (JsonMarshaller m : marshallers) {
+        Object src = sourcePath.get();
+        for (JsonMarshaller m : getMarshallerChain(src == null ? null : src.getClass())) {
             if (m.writeJson(sourcePath, out, this)) {
                 break;
             }
@@ -268,7 +518,9 @@ public class JsonConverter {
         JsonReader jsr = new JsonReader(r);
         try {
             jsr.setLenient(true);
-            readJson(Streams.parse(jsr), target);
+            PropertyPath rootPath = new PropertyPath(new PropertyPath.Node(target.getClass()), null);
+            rootPath.set(target);
+            readRootJson(jsr, rootPath);
         } finally {
             jsr.close();
         }
@@ -300,17 +552,35 @@ public class JsonConverter {
     @SuppressWarnings("unchecked")
     public <T> T fromJson(JsonReader r, Class<T> clazz) throws IOException {
         PropertyPath rootPath = new PropertyPath(new PropertyPath.Node(clazz), null);
-        JsonElement source = Streams.parse(r);
-        readJson(source, rootPath);
+        readRootJson(r, rootPath);
         return (T) rootPath.get();
     }
 
+    private void readRootJson(JsonReader r, PropertyPath rootPath) throws IOException {
+        //same error handling as Streams#parse
+        boolean isEmpty = true;
+        try {
+            r.peek();
+            isEmpty = false;
+            readJson(r, rootPath);
+        } catch (EOFException e) {
+            if (!isEmpty) {
+                throw new JsonSyntaxException(e);
+            }
+            readJson(JsonNull.INSTANCE, rootPath);
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
     /**
      * Read (unmarshal) source and its subtree into targetPath. Usually
      * not called directly by outside parties, but only by unmarshallers and the other 
      * read* / fromJson() methods.
      * <p>
-     * All read* / fromJson() methods delegate to this one. This method calls all
+     * All read* / fromJson() methods delegate to this one, except those reading from
+     * a {@link Reader} or {@link JsonReader}, which delegate to the stream variant
+     * {@link #readJson(JsonReader, PropertyPath)}. This method calls all
      * {@link #registerUnmarshaller(JsonUnmarshaller) registered unmarshallers} (in reverse
      * order of registering) until one returns true, indicating that it read the subtree
      * into targetPath.
@@ -320,11 +590,81 @@ public class JsonConverter {
      * @throws IOException
      */
     public void readJson(JsonElement source, PropertyPath targetPath) throws IOException {
-        for (JsonUnmarshaller um : unmarshallers) {
+        for (JsonUnmarshaller um : getUnmarshallerChain(tokenOf(source))) {
             if (um.readJson(source, targetPath, this)) {
                 break;
             }
         }
     }
+
+    /**
+     * Stream variant of {@link #readJson(JsonElement, PropertyPath)}: Read
+     * (unmarshal) the next JSON element from source into targetPath, calling
+     * the same unmarshallers in the same order.
+     * <p>
+     * {@link JsonStreamUnmarshaller Stream unmarshallers} read the element
+     * directly from source. When an unmarshaller that isn't one is reached, the
+     * (rest of the) element is parsed into a tree, which it and the remaining
+     * unmarshallers read instead. Thus, the element is only
+     * materialized if some registered unmarshaller that may handle it (see
+     * {@link TypedJsonUnmarshaller}) can't read streams.
+     * 
+     * @param source
+     * @param targetPath
+     * @throws IOException
+     */
+    public void readJson(JsonReader source, PropertyPath targetPath) throws IOException {
+        PushbackJsonReader in = source instanceof PushbackJsonReader ? (PushbackJsonReader) source : new PushbackJsonReader(source);
+        JsonToken token = in.peek();
+        JsonObject header = null;
+        if (token == JsonToken.BEGIN_OBJECT) {
+            in.beginObject();
+            header = readHeader(in);
+        }
+        JsonUnmarshaller[] chain = getUnmarshallerChain(token);
+        for (int i = 0; i < chain.length; i++) {
+            if (!(chain[i] instanceof JsonStreamUnmarshaller)) {
+                JsonElement element = header == null ? Streams.parse(in) : readRemainingMembers(header, in);
+                for (; i < chain.length; i++) {
+                    if (chain[i].readJson(element, targetPath, this)) {
+                        return;
+                    }
+                }
+                return;
+            }
+            if (((JsonStreamUnmarshaller) chain[i]).readJson(header, in, targetPath, this)) {
+                return;
+            }
+        }
+        //not read by anyone (like in the tree variant)
+        if (header == null) {
+            in.skipValue();
+        } else {
+            readRemainingMembers(header, in);
+        }
+    }
+
+    //read the leading members of an object whose names start with "_"
+    private static JsonObject readHeader(PushbackJsonReader in) throws IOException {
+        JsonObject header = new JsonObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (!name.startsWith("_")) {
+                in.pushBackName(name);
+                break;
+            }
+            header.add(name, Streams.parse(in));
+        }
+        return header;
+    }
+
+    //read the rest of an object whose header has been read, and its end. Returns the whole object.
+    private static JsonObject readRemainingMembers(JsonObject header, JsonReader in) throws IOException {
+        while (in.hasNext()) {
+            header.add(in.nextName(), Streams.parse(in));
+        }
+        in.endObject();
+        return header;
+    }
     
 }
@@ -0,0 +1,52 @@
+package de.olafklischat.esmapper.json;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * {@link TypedJsonUnmarshaller} that can read its JSON elements directly from a
+ * {@link JsonReader}, so {@link JsonConverter} needn't build a {@link com.google.gson.JsonElement}
+ * tree of the input first. JsonConverter reads from the stream as long as all
+ * the unmarshallers it calls for an element are stream unmarshallers; when it
+ * reaches one that isn't, it parses the element (only that one) into a tree and
+ * continues with the tree-based {@link #readJson(com.google.gson.JsonElement, PropertyPath, JsonConverter) readJson}.
+ * Stream unmarshallers therefore still have to implement that as well.
+ * <p>
+ * Unmarshallers usually need some information about a JSON object before they
+ * can decide whether and how to unmarshal it, e.g. the <code>_class</code> to instantiate
+ * or the <code>_ref_*</code> properties of an entity reference. So for objects,
+ * JsonConverter reads ahead the object's leading members whose names start with
+ * "_" (the header) and passes them to the unmarshallers separately. Members starting with "_" that
+ * follow other members aren't part of the header, and are generally skipped.
+ * The default marshallers write all of them first.
+ *
+ * @author Olaf Klischat
+ */
+public interface JsonStreamUnmarshaller extends TypedJsonUnmarshaller {
+
+    /**
+     * Stream variant of {@link #readJson(com.google.gson.JsonElement, PropertyPath, JsonConverter)}.
+     *
+     * @param header
+     *            for JSON objects, the object's header, i.e. its leading members
+     *            whose names start with "_" (may be empty). source is positioned inside
+     *            the object after them, and the unmarshaller must read the remaining
+     *            members and the end of the object. null for all other elements, in
+     *            which case source is positioned at the element.
+     * @param source
+     *            the reader to read the element from
+     * @param targetPath
+     *            as in the tree-based readJson
+     * @param context
+     *            as in the tree-based readJson. Subtrees are delegated back to
+     *            {@link JsonConverter#readJson(JsonReader, PropertyPath)}.
+     * @return true if the unmarshaller read the element, false if it didn't, in
+     *         which case it must neither have read anything from source nor
+     *         written anything to the target.
+     * @throws IOException
+     */
+    boolean readJson(JsonObject header, JsonReader source, PropertyPath targetPath, JsonConverter context) throws IOException;
+
+}
@@ -0,0 +1,245 @@
+package de.olafklischat.esmapper.json;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes a bean property through method handles that are bound to
+ * its getter and setter once per class, which avoids the per-call overhead of
+ * {@link Method#invoke(Object, Object...)} (argument arrays, access checks,
+ * exception wrapping). Classes that have a {@link BeanCodec} are accessed
+ * through it instead. The annotations of the getter are cached as well.
+ * <p>
+ * Used by {@link PropertyPath.Node} and the entity introspector.
+ *
+ * @author olaf
+ */
+public final class PropertyAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<BeanCodec<Object>> codecsCache = new ClassValue<BeanCodec<Object>>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected BeanCodec<Object> computeValue(Class<?> cl) {
+            if (cl.isArray() || cl.isPrimitive() || cl.getClassLoader() == null) {
+                return null;
+            }
+            Class<?> codecClass;
+            try {
+                codecClass = Class.forName(cl.getName() + BeanCodec.CLASS_SUFFIX, true, cl.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+            if (!BeanCodec.class.isAssignableFrom(codecClass)) {
+                return null;
+            }
+            try {
+                return (BeanCodec<Object>) codecClass.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("couldn't instantiate codec " + codecClass + ": " + e.getLocalizedMessage(), e);
+            }
+        }
+    };
+
+    private static final ClassValue<Map<String, PropertyAccessor>> accessorsCache = new ClassValue<Map<String, PropertyAccessor>>() {
+        @Override
+        protected Map<String, PropertyAccessor> computeValue(Class<?> cl) {
+            try {
+                BeanInfo bi = Introspector.getBeanInfo(cl);
+                BeanCodec<Object> codec = getCodec(cl);
+                Map<String, Integer> codecIndices = new HashMap<String, Integer>();
+                if (codec != null) {
+                    String[] names = codec.getPropertyNames();
+                    for (int i = 0; i < names.length; i++) {
+                        codecIndices.put(names[i], i);
+                    }
+                }
+                Map<String, PropertyAccessor> result = new LinkedHashMap<String, PropertyAccessor>();
+                for (PropertyDescriptor pd : bi.getPropertyDescriptors()) {
+                    Integer codecIndex = codecIndices.get(pd.getName());
+                    result.put(pd.getName(), new PropertyAccessor(pd, codec, codecIndex == null ? -1 : codecIndex));
+                }
+                return Collections.unmodifiableMap(result);
+            } catch (IntrospectionException e) {
+                throw new IllegalStateException("error introspecting " + cl + ": " + e.getLocalizedMessage(), e);
+            }
+        }
+    };
+
+    private final PropertyDescriptor propDescriptor;
+    //codec and index of the property in it, if it supports the property; method handles otherwise
+    private final BeanCodec<Object> codec;
+    private final int codecIndex;
+    private final boolean codecReads, codecWrites;
+    private final MethodHandle getter, setter;
+    private final Annotation[] annotations;
+
+    private PropertyAccessor(PropertyDescriptor propDescriptor, BeanCodec<Object> codec, int codecIndex) {
+        this.propDescriptor = propDescriptor;
+        this.codec = codec;
+        this.codecIndex = codecIndex;
+        boolean readable = propDescriptor.getReadMethod() != null;
+        boolean writable = propDescriptor.getWriteMethod() != null;
+        this.codecReads = readable && codecIndex >= 0 && codec.isReadable(codecIndex);
+        this.codecWrites = writable && codecIndex >= 0 && codec.isWritable(codecIndex);
+        this.getter = !readable || codecReads ? null : unreflect(propDescriptor.getReadMethod(), GETTER_TYPE);
+        this.setter = !writable || codecWrites ? null : unreflect(propDescriptor.getWriteMethod(), SETTER_TYPE);
+        this.annotations = readable ? propDescriptor.getReadMethod().getAnnotations() : new Annotation[0];
+    }
+
+    private static MethodHandle unreflect(Method m, MethodType type) {
+        try {
+            m.setAccessible(true);
+        } catch (SecurityException e) {
+            //try without
+        }
+        try {
+            return MethodHandles.lookup().unreflect(m).asType(type);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("method not accessible: " + m + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * @return the {@link BeanCodec} of cl, null if it has none
+     */
+    public static BeanCodec<Object> getCodec(Class<?> cl) {
+        return codecsCache.get(cl);
+    }
+
+    /**
+     * @return the accessors of all properties of cl, by property name, in the order
+     *         of {@link BeanInfo#getPropertyDescriptors()}
+     */
+    public static Map<String, PropertyAccessor> of(Class<?> cl) {
+        return accessorsCache.get(cl);
+    }
+
+    /**
+     * @return the accessor of cl's property of the given name, or null if there is none
+     */
+    public static PropertyAccessor of(Class<?> cl, String propertyName) {
+        return accessorsCache.get(cl).get(propertyName);
+    }
+
+    /**
+     * @return the accessor of the property described by pd in cl. pd normally
+     *         is one of cl's property descriptors; others are bound separately
+     *         (and not cached).
+     */
+    public static PropertyAccessor of(Class<?> cl, PropertyDescriptor pd) {
+        PropertyAccessor result = of(cl, pd.getName());
+        if (result != null && (result.propDescriptor == pd ||
+                (eq(result.propDescriptor.getReadMethod(), pd.getReadMethod()) &&
+                 eq(result.propDescriptor.getWriteMethod(), pd.getWriteMethod())))) {
+            return result;
+        }
+        return new PropertyAccessor(pd, null, -1);
+    }
+
+    private static boolean eq(Method m1, Method m2) {
+        return m1 == null ? m2 == null : m1.equals(m2);
+    }
+
+    public PropertyDescriptor getPropDescriptor() {
+        return propDescriptor;
+    }
+
+    public String getName() {
+        return propDescriptor.getName();
+    }
+
+    public Class<?> getType() {
+        return propDescriptor.getPropertyType();
+    }
+
+    public boolean isReadable() {
+        return codecReads || getter != null;
+    }
+
+    public boolean isWritable() {
+        return codecWrites || setter != null;
+    }
+
+    /**
+     * @return the annotation of the given type on the property's getter, null
+     *         if there is none (or no getter)
+     */
+    public <T extends Annotation> T getAnnotation(Class<T> annotationClass) {
+        for (Annotation a : annotations) {
+            if (a.annotationType() == annotationClass) {
+                return annotationClass.cast(a);
+            }
+        }
+        return null;
+    }
+
+    public Annotation[] getAnnotations() {
+        return annotations.clone();
+    }
+
+    /**
+     * @throws IllegalStateException if the property isn't readable
+     * @throws Exception whatever the getter throws
+     */
+    public Object get(Object bean) throws Exception {
+        if (codecReads) {
+            return codec.get(bean, codecIndex);
+        }
+        if (getter == null) {
+            throw new IllegalStateException("property not readable: " + getName());
+        }
+        try {
+            return getter.invokeExact(bean);
+        } catch (Exception e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the property isn't writable
+     * @throws Exception whatever the setter throws
+     */
+    public void set(Object bean, Object value) throws Exception {
+        if (codecWrites) {
+            codec.set(bean, codecIndex, value);
+            return;
+        }
+        if (setter == null) {
+            throw new IllegalStateException("property not writable: " + getName());
+        }
+        try {
+            setter.invokeExact(bean, value);
+        } catch (Exception e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PropertyAccessor[" + getName() + "]";
+    }
+
+}
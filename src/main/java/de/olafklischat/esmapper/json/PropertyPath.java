@@ -1,11 +1,8 @@
 package de.olafklischat.esmapper.json;
 
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -136,6 +133,7 @@ public class PropertyPath {
         
         //field is final, but can't be because compiler complains in Node(String,Object) c'tor
         private /*final*/ PropertyDescriptor propDescriptor; //needed when type==PROPERTY
+        private PropertyAccessor accessor; //type==PROPERTY; bound lazily unless passed in
         private final int arrayIndex;   //needed when type==ARRAY_ELEMENT
         private final String mapKey;    //needed when type==MAP_VALUE
 
@@ -152,6 +150,11 @@ public class PropertyPath {
             this(Type.PROPERTY, propDescriptor, 0, null, baseObject);
         }
 
+        public Node(PropertyAccessor accessor, Object baseObject) {
+            this(Type.PROPERTY, accessor.getPropDescriptor(), 0, null, baseObject);
+            this.accessor = accessor;
+        }
+
         public Node(int arrayIndex, Object baseObject) {
             this(Type.ARRAY_ELEMENT, null, arrayIndex, null, baseObject);
         }
@@ -174,21 +177,11 @@ public class PropertyPath {
                 this.mapKey = mapKeyOrPropertyName;
             } else {
                 this.type = Type.PROPERTY;
-                PropertyDescriptor[] pds;
-                try {
-                    pds = Introspector.getBeanInfo(baseObject.getClass()).getPropertyDescriptors();
-                    for (PropertyDescriptor pd: pds) {
-                        if (pd.getName().equals(mapKeyOrPropertyName)) {
-                            this.propDescriptor = pd;
-                            break;
-                        }
-                    }
-                } catch (IntrospectionException e) {
-                    throw new IllegalStateException("error introspecting " + baseObject + ": " + e.getLocalizedMessage(), e);
-                }
-                if (this.propDescriptor == null) {
+                this.accessor = PropertyAccessor.of(baseObject.getClass(), mapKeyOrPropertyName);
+                if (this.accessor == null) {
                     throw new IllegalStateException("property " + mapKeyOrPropertyName + " not found in " + baseObject);
                 }
+                this.propDescriptor = accessor.getPropDescriptor();
                 this.arrayIndex = 0;
                 this.mapKey = null;
             }
@@ -258,6 +251,19 @@ public class PropertyPath {
             return propDescriptor;
         }
         
+        /**
+         * @return the accessor of the property (bound to baseObject's class)
+         */
+        public PropertyAccessor getPropAccessor() {
+            if (type != Type.PROPERTY) {
+                throw new IllegalStateException();
+            }
+            if (accessor == null) {
+                accessor = PropertyAccessor.of(baseObject.getClass(), propDescriptor);
+            }
+            return accessor;
+        }
+
         public int getArrayIndex() {
             if (type != Type.ARRAY_ELEMENT) {
                 throw new IllegalStateException();
@@ -300,42 +306,24 @@ public class PropertyPath {
             if (type != Type.PROPERTY) {
                 return null;
             }
-            Method rm = propDescriptor.getReadMethod();
-            if (rm == null) {
-                return null;
-            }
-            try {
-                return rm.getAnnotation(annotationClass);
-            } catch (Exception e) {
-                throw new IllegalStateException("error reading property " + pathToMe + ": " +
-                        e.getLocalizedMessage(), e);
-            }
+            return getPropAccessor().getAnnotation(annotationClass);
         }
 
         public Annotation[] getAnnotations() {
             if (type != Type.PROPERTY) {
                 return new Annotation[0];
             }
-            Method rm = propDescriptor.getReadMethod();
-            if (rm == null) {
-                return new Annotation[0];
-            }
-            try {
-                return rm.getAnnotations();
-            } catch (Exception e) {
-                throw new IllegalStateException("error reading property " + pathToMe + ": " +
-                        e.getLocalizedMessage(), e);
-            }
+            return getPropAccessor().getAnnotations();
         }
 
         public Object get() {
             switch (type) {
 
             case PROPERTY:
-                Method rm = propDescriptor.getReadMethod();
-                if (rm != null) {
+                PropertyAccessor ra = getPropAccessor();
+                if (ra.isReadable()) {
                     try {
-                        return rm.invoke(baseObject);
+                        return ra.get(baseObject);
                     } catch (Exception e) {
                         throw new IllegalStateException("error reading property " + pathToMe + ": " +
                                 e.getLocalizedMessage(), e);
@@ -375,10 +363,10 @@ public class PropertyPath {
             switch (type) {
 
             case PROPERTY:
-                Method wm = propDescriptor.getWriteMethod();
-                if (wm != null) {
+                PropertyAccessor wa = getPropAccessor();
+                if (wa.isWritable()) {
                     try {
-                        wm.invoke(baseObject, value);
+                        wa.set(baseObject, value);
                     } catch (Exception e) {
                         throw new IllegalStateException("error setting property " + pathToMe +
                                 " to " + value + ": " + e.getLocalizedMessage(), e);
@@ -0,0 +1,138 @@
+package de.olafklischat.esmapper.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * {@link JsonReader} wrapper that can push back one member name that has been
+ * read, which JsonReader itself can't peek. Used by {@link JsonConverter} for
+ * reading object headers (see {@link JsonStreamUnmarshaller}): the name of the
+ * first member after the header is read and pushed back.
+ *
+ * @author Olaf Klischat
+ */
+final class PushbackJsonReader extends JsonReader {
+
+    private final JsonReader in;
+    private String pushedBackName;
+
+    PushbackJsonReader(JsonReader in) {
+        super(new StringReader(""));
+        this.in = in;
+        setLenient(in.isLenient());
+    }
+
+    void pushBackName(String name) {
+        if (pushedBackName != null) {
+            throw new IllegalStateException("a name has already been pushed back: " + pushedBackName);
+        }
+        pushedBackName = name;
+    }
+
+    private void checkNoPushedBackName() {
+        if (pushedBackName != null) {
+            throw new IllegalStateException("Expected a value but was NAME (" + pushedBackName + ")");
+        }
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        checkNoPushedBackName();
+        in.beginArray();
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        checkNoPushedBackName();
+        in.endArray();
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        checkNoPushedBackName();
+        in.beginObject();
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        checkNoPushedBackName();
+        in.endObject();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return pushedBackName != null || in.hasNext();
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        return pushedBackName != null ? JsonToken.NAME : in.peek();
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        if (pushedBackName != null) {
+            String result = pushedBackName;
+            pushedBackName = null;
+            return result;
+        }
+        return in.nextName();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        checkNoPushedBackName();
+        return in.nextString();
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        checkNoPushedBackName();
+        return in.nextBoolean();
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        checkNoPushedBackName();
+        in.nextNull();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        checkNoPushedBackName();
+        return in.nextDouble();
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        checkNoPushedBackName();
+        return in.nextLong();
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        checkNoPushedBackName();
+        return in.nextInt();
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        //a pushed back name is skipped along with its value
+        pushedBackName = null;
+        in.skipValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    @Override
+    public String toString() {
+        return "PushbackJsonReader[" + in + "]";
+    }
+
+}
@@ -0,0 +1,24 @@
+package de.olafklischat.esmapper.json;
+
+/**
+ * {@link JsonMarshaller} that declares the Java types it handles, so
+ * {@link JsonConverter} only calls it for values of those types. JsonConverter
+ * resolves (and caches) the marshallers to call per value type. Marshallers that
+ * don't implement this interface are called for all values, in registration
+ * order as usual.
+ * 
+ * @author Olaf Klischat
+ */
+public interface TypedJsonMarshaller extends JsonMarshaller {
+
+    /**
+     * Must depend on type only, and return true if
+     * {@link #writeJson(PropertyPath, com.google.gson.stream.JsonWriter, JsonConverter) writeJson}
+     * may return true for a value of type.
+     * 
+     * @param type
+     *            runtime class of the value to be marshalled, null for null values
+     */
+    boolean handlesType(Class<?> type);
+
+}
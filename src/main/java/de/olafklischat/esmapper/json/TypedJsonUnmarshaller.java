@@ -0,0 +1,29 @@
+package de.olafklischat.esmapper.json;
+
+import com.google.gson.stream.JsonToken;
+
+/**
+ * {@link JsonUnmarshaller} that declares the kinds of JSON elements it
+ * handles, so {@link JsonConverter} only calls it for elements of those kinds.
+ * JsonConverter resolves (and caches) the unmarshallers to call per kind.
+ * Unmarshallers that don't implement this interface are called for all
+ * elements, in registration order as usual.
+ * 
+ * @author Olaf Klischat
+ */
+public interface TypedJsonUnmarshaller extends JsonUnmarshaller {
+
+    /**
+     * Must depend on token only, and return true if
+     * {@link #readJson(com.google.gson.JsonElement, PropertyPath, JsonConverter) readJson}
+     * may return true for a JSON element of that kind.
+     * 
+     * @param token
+     *            kind of the JSON element: {@link JsonToken#BEGIN_OBJECT},
+     *            {@link JsonToken#BEGIN_ARRAY}, {@link JsonToken#STRING},
+     *            {@link JsonToken#NUMBER}, {@link JsonToken#BOOLEAN} or
+     *            {@link JsonToken#NULL}
+     */
+    boolean handlesToken(JsonToken token);
+
+}
@@ -6,10 +6,15 @@ import java.lang.reflect.Array;
 import com.google.gson.stream.JsonWriter;
 
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonMarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
+import de.olafklischat.esmapper.json.TypedJsonMarshaller;
 
-public class DefaultArrayMarshaller implements JsonMarshaller {
+public class DefaultArrayMarshaller implements TypedJsonMarshaller {
+
+    @Override
+    public boolean handlesType(Class<?> type) {
+        return type != null && type.isArray();
+    }
 
     @Override
     public boolean writeJson(PropertyPath sourcePath, JsonWriter out, JsonConverter converter)
@@ -10,15 +10,18 @@ import java.util.Set;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.util.HashSet;
 
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonUnmarshaller;
+import de.olafklischat.esmapper.json.JsonStreamUnmarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
 import de.olafklischat.esmapper.json.annotations.ImplClass;
 
-public class DefaultArrayUnmarshaller implements JsonUnmarshaller {
+public class DefaultArrayUnmarshaller implements JsonStreamUnmarshaller {
 
     private static final Map<Class<?>, Class<?>> defaultCollectionImplClasses = new HashMap<Class<?>, Class<?>>();
     
@@ -29,12 +32,51 @@ public class DefaultArrayUnmarshaller implements JsonUnmarshaller {
         defaultCollectionImplClasses.put(Object.class, ArrayList.class);
     }
 
+    @Override
+    public boolean handlesToken(JsonToken token) {
+        return token == JsonToken.BEGIN_ARRAY;
+    }
+
     @Override
     public boolean readJson(JsonElement r, PropertyPath targetPath,
             JsonConverter converter) throws IOException {
         if (!r.isJsonArray()) {
             return false;
         }
+        Object targetObject = getOrCreateTarget(r, targetPath, converter);
+        
+        ////// 2. fill the created target object with the array elements
+        JsonArray srcArray = r.getAsJsonArray();
+        int index = 0;
+        for (JsonElement elt : srcArray) {
+            PropertyPath elementPath = new PropertyPath(new PropertyPath.Node(index, targetObject), targetPath);
+            converter.readJson(elt, elementPath);
+            index++;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean readJson(JsonObject header, JsonReader r, PropertyPath targetPath,
+            JsonConverter converter) throws IOException {
+        if (r.peek() != JsonToken.BEGIN_ARRAY) {
+            return false;
+        }
+        Object targetObject = getOrCreateTarget(null, targetPath, converter);
+
+        r.beginArray();
+        int index = 0;
+        while (r.hasNext()) {
+            PropertyPath elementPath = new PropertyPath(new PropertyPath.Node(index, targetObject), targetPath);
+            converter.readJson(r, elementPath);
+            index++;
+        }
+        r.endArray();
+        return true;
+    }
+
+    private Object getOrCreateTarget(JsonElement r, PropertyPath targetPath,
+            JsonConverter converter) throws IOException {
         ////// 1. try to set() targetPath to an object that's an instance of targetPath's type (getNodeClass()),
         //////     *and* is a collection or array
         
@@ -56,19 +98,13 @@ public class DefaultArrayUnmarshaller implements JsonUnmarshaller {
             //targetObject has been created successfully
             targetPath.set(targetObject);
         }
-        
-        ////// 2. fill the created target object with the array elements
-        JsonArray srcArray = r.getAsJsonArray();
-        int index = 0;
-        for (JsonElement elt : srcArray) {
-            PropertyPath elementPath = new PropertyPath(new PropertyPath.Node(index, targetObject), targetPath);
-            converter.readJson(elt, elementPath);
-            index++;
-        }
-        return true;
+        return targetObject;
     }
     
     
+    /**
+     * @param r the JSON array, or null if it is being read from a stream
+     */
     protected Object createInstance(JsonElement r, PropertyPath targetPath,
             JsonConverter converter) throws IOException {
 
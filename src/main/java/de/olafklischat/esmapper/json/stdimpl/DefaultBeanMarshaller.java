@@ -1,14 +1,13 @@
 package de.olafklischat.esmapper.json.stdimpl;
 
-import java.beans.BeanInfo;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.io.IOException;
 
 import com.google.gson.stream.JsonWriter;
 
+import de.olafklischat.esmapper.json.BeanPlan;
 import de.olafklischat.esmapper.json.JsonConverter;
 import de.olafklischat.esmapper.json.JsonMarshaller;
+import de.olafklischat.esmapper.json.PropertyAccessor;
 import de.olafklischat.esmapper.json.PropertyPath;
 
 public class DefaultBeanMarshaller implements JsonMarshaller {
@@ -17,18 +16,15 @@ public class DefaultBeanMarshaller implements JsonMarshaller {
     public boolean writeJson(PropertyPath sourcePath, JsonWriter out, JsonConverter converter)
             throws IOException {
         Object src = sourcePath.get();
+        BeanPlan plan = BeanPlan.of(src.getClass());
         out.beginObject();
         out.name("_class");
-        out.value(src.getClass().getCanonicalName());
+        out.value(plan.getClassName());
         try (JsonWriterEndObjectCloseWrapper outWrapper = new JsonWriterEndObjectCloseWrapper(out)) {
-            BeanInfo bi = Introspector.getBeanInfo(src.getClass());
-            for (PropertyDescriptor pd : bi.getPropertyDescriptors()) {
-                if ("class".equals(pd.getName())) { //TODO: exclude anything from j.l.Object?
-                    continue;
-                }
-                PropertyPath elementPath = new PropertyPath(new PropertyPath.Node(pd, src), sourcePath);
+            for (PropertyAccessor pa : plan.getMarshalledProperties()) {
+                PropertyPath elementPath = new PropertyPath(new PropertyPath.Node(pa, src), sourcePath);
                 if (converter.shouldMarshal(elementPath)) {
-                    out.name(pd.getName());
+                    out.name(pa.getName());
                     converter.writeJson(elementPath, out);
                 }
             }
@@ -5,10 +5,15 @@ import java.io.IOException;
 import com.google.gson.stream.JsonWriter;
 
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonMarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
+import de.olafklischat.esmapper.json.TypedJsonMarshaller;
 
-public class DefaultBooleanMarshaller implements JsonMarshaller {
+public class DefaultBooleanMarshaller implements TypedJsonMarshaller {
+
+    @Override
+    public boolean handlesType(Class<?> type) {
+        return type == Boolean.class;
+    }
 
     @Override
     public boolean writeJson(PropertyPath sourcePath, JsonWriter out, JsonConverter converter)
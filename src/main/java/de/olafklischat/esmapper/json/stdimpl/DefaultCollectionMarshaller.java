@@ -6,10 +6,15 @@ import java.util.Collection;
 import com.google.gson.stream.JsonWriter;
 
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonMarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
+import de.olafklischat.esmapper.json.TypedJsonMarshaller;
 
-public class DefaultCollectionMarshaller implements JsonMarshaller {
+public class DefaultCollectionMarshaller implements TypedJsonMarshaller {
+
+    @Override
+    public boolean handlesType(Class<?> type) {
+        return type != null && Collection.class.isAssignableFrom(type);
+    }
 
     @Override
     public boolean writeJson(PropertyPath sourcePath, JsonWriter out, JsonConverter converter)
@@ -6,10 +6,15 @@ import java.util.Map;
 import com.google.gson.stream.JsonWriter;
 
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonMarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
+import de.olafklischat.esmapper.json.TypedJsonMarshaller;
 
-public class DefaultMapMarshaller implements JsonMarshaller {
+public class DefaultMapMarshaller implements TypedJsonMarshaller {
+
+    @Override
+    public boolean handlesType(Class<?> type) {
+        return type != null && Map.class.isAssignableFrom(type);
+    }
 
     @Override
     public boolean writeJson(PropertyPath sourcePath, JsonWriter out, JsonConverter converter)
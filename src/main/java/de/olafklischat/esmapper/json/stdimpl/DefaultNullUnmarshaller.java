@@ -3,12 +3,20 @@ package de.olafklischat.esmapper.json.stdimpl;
 import java.io.IOException;
 
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonUnmarshaller;
+import de.olafklischat.esmapper.json.JsonStreamUnmarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
 
-public class DefaultNullUnmarshaller implements JsonUnmarshaller {
+public class DefaultNullUnmarshaller implements JsonStreamUnmarshaller {
+
+    @Override
+    public boolean handlesToken(JsonToken token) {
+        return token == JsonToken.NULL;
+    }
 
     @Override
     public boolean readJson(JsonElement r, PropertyPath targetPath,
@@ -20,4 +28,15 @@ public class DefaultNullUnmarshaller implements JsonUnmarshaller {
         return true;
     }
 
+    @Override
+    public boolean readJson(JsonObject header, JsonReader r, PropertyPath targetPath,
+            JsonConverter converter) throws IOException {
+        if (r.peek() != JsonToken.NULL) {
+            return false;
+        }
+        r.nextNull();
+        targetPath.set(null);
+        return true;
+    }
+
 }
@@ -3,13 +3,21 @@ package de.olafklischat.esmapper.json.stdimpl;
 import java.io.IOException;
 
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonUnmarshaller;
+import de.olafklischat.esmapper.json.JsonStreamUnmarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
 
-public class DefaultNumberUnmarshaller implements JsonUnmarshaller {
+public class DefaultNumberUnmarshaller implements JsonStreamUnmarshaller {
+
+    @Override
+    public boolean handlesToken(JsonToken token) {
+        return token == JsonToken.NUMBER;
+    }
 
     @Override
     public boolean readJson(JsonElement r, PropertyPath targetPath,
@@ -21,7 +29,22 @@ public class DefaultNumberUnmarshaller implements JsonUnmarshaller {
         if (! jsp.isNumber()) {
             return false;
         }
-        String jsonNum = jsp.toString();
+        targetPath.set(convertNumber(parseNumber(jsp.toString()), targetPath.getNodeClass()));
+        return true;
+    }
+
+    @Override
+    public boolean readJson(JsonObject header, JsonReader r, PropertyPath targetPath,
+            JsonConverter converter) throws IOException {
+        if (r.peek() != JsonToken.NUMBER) {
+            return false;
+        }
+        //nextString() returns the number's literal text, like JsonPrimitive#toString()
+        targetPath.set(convertNumber(parseNumber(r.nextString()), targetPath.getNodeClass()));
+        return true;
+    }
+
+    private Number parseNumber(String jsonNum) {
         Number fromJson;
         try {
             fromJson = Integer.valueOf(jsonNum);
@@ -32,8 +55,7 @@ public class DefaultNumberUnmarshaller implements JsonUnmarshaller {
                 fromJson = Double.valueOf(jsonNum);
             }
         }
-        targetPath.set(convertNumber(fromJson, targetPath.getNodeClass()));
-        return true;
+        return fromJson;
     }
 
     private Object convertNumber(Number n, Class<?> targetType) {
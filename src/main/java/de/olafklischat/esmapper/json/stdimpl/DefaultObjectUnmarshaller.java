@@ -10,14 +10,18 @@ import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import de.olafklischat.esmapper.json.BeanPlan;
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonUnmarshaller;
+import de.olafklischat.esmapper.json.JsonStreamUnmarshaller;
+import de.olafklischat.esmapper.json.PropertyAccessor;
 import de.olafklischat.esmapper.json.PropertyPath;
 import de.olafklischat.esmapper.json.annotations.JsonIgnore;
 import de.olafklischat.esmapper.json.annotations.ImplClass;
 
-public class DefaultObjectUnmarshaller implements JsonUnmarshaller {
+public class DefaultObjectUnmarshaller implements JsonStreamUnmarshaller {
 
     private static final Map<Class<?>, Class<?>> defaultMapImplClasses = new HashMap<Class<?>, Class<?>>();
     
@@ -28,12 +32,85 @@ public class DefaultObjectUnmarshaller implements JsonUnmarshaller {
         defaultMapImplClasses.put(Object.class, HashMap.class);
     }
     
+    @Override
+    public boolean handlesToken(JsonToken token) {
+        return token == JsonToken.BEGIN_OBJECT;
+    }
+
     @Override
     public boolean readJson(JsonElement r, PropertyPath targetPath,
             JsonConverter converter) throws IOException {
         if (! r.isJsonObject()) {
             return false;
         }
+        JsonObject srcObj = r.getAsJsonObject();
+        Object targetObject = getOrCreateTarget(srcObj, targetPath);
+        BeanPlan plan = targetObject instanceof Map<?, ?> ? null : BeanPlan.of(targetObject.getClass());
+
+        ////// 2. targetObject has been set() into targetPath, now fill it
+        for (Map.Entry<String, JsonElement> en : srcObj.entrySet()) {
+            String key = en.getKey();
+            if (key.startsWith("_")) { //skip any values whose keys start with "_"
+                continue;
+            }
+            PropertyPath elementPath = getElementPath(key, targetObject, plan, targetPath);
+            if (elementPath != null) {
+                converter.readJson(en.getValue(), elementPath);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean readJson(JsonObject header, JsonReader r, PropertyPath targetPath,
+            JsonConverter converter) throws IOException {
+        if (header == null) {
+            return false;
+        }
+        //_class / _mapClass must be in the header
+        Object targetObject = getOrCreateTarget(header, targetPath);
+        BeanPlan plan = targetObject instanceof Map<?, ?> ? null : BeanPlan.of(targetObject.getClass());
+
+        while (r.hasNext()) {
+            String key = r.nextName();
+            if (key.startsWith("_")) {
+                r.skipValue();
+                continue;
+            }
+            PropertyPath elementPath = getElementPath(key, targetObject, plan, targetPath);
+            if (elementPath != null) {
+                converter.readJson(r, elementPath);
+            } else {
+                r.skipValue();
+            }
+        }
+        r.endObject();
+        return true;
+    }
+
+    /**
+     * @param plan targetObject's plan, null if it's a map
+     * @return path of the property or map value key of targetObject, null if
+     *         it's an ignored property
+     */
+    private PropertyPath getElementPath(String key, Object targetObject, BeanPlan plan, PropertyPath targetPath) {
+        if (plan == null) {
+            return new PropertyPath(new PropertyPath.Node(key, targetObject), targetPath);
+        }
+        PropertyAccessor pa = plan.getProperty(key);
+        if (pa == null) {
+            throw new IllegalStateException("property " + key + " not found in " + targetObject);
+        }
+        if (pa.getAnnotation(JsonIgnore.class) != null) {
+            return null;
+        }
+        return new PropertyPath(new PropertyPath.Node(pa, targetObject), targetPath);
+    }
+
+    /**
+     * @param srcObj the JSON object, or just its header if it's being read from a stream
+     */
+    private Object getOrCreateTarget(JsonObject srcObj, PropertyPath targetPath) throws IOException {
         ////// 1. try to set() targetPath to an object that's an instance of targetPath's type (getNodeClass()),
         //////     *and* is a map or bean
         
@@ -44,8 +121,6 @@ public class DefaultObjectUnmarshaller implements JsonUnmarshaller {
             //assume no error -- may be IndexOutOfBoundsExeption due to empty array/list etc.
         }
         
-        JsonObject srcObj = r.getAsJsonObject();
-
         if (null == targetObject) {
             // targetPath hasn't been set() yet; we need to set it as described above.
             // This is the normal case. targetObject may only be non-null for root paths,
@@ -55,7 +130,7 @@ public class DefaultObjectUnmarshaller implements JsonUnmarshaller {
             Class<?> targetClass = targetPath.getNodeClass();
     
             //try to instantiate targetObject from @ImplClass annotation, if present
-            targetObject = tryCreateImplClassAnnotationInstance(targetPath, r);
+            targetObject = tryCreateImplClassAnnotationInstance(targetPath, srcObj);
     
             //if that didn't work, try to instantiate the class specified in _class or _mapClass in the JSON (if present)
             if (null == targetObject) {
@@ -106,20 +181,7 @@ public class DefaultObjectUnmarshaller implements JsonUnmarshaller {
             //targetObject has been created successfully
             targetPath.set(targetObject);
         }
-
-        ////// 2. targetObject has been set() into targetPath, now fill it
-        for (Map.Entry<String, JsonElement> en : srcObj.entrySet()) {
-            String key = en.getKey();
-            if (key.startsWith("_")) { //skip any values whose keys start with "_"
-                continue;
-            }
-            JsonElement value = en.getValue();
-            PropertyPath elementPath = new PropertyPath(new PropertyPath.Node(key, targetObject), targetPath);
-            if (elementPath.getAnnotation(JsonIgnore.class) == null) {
-                converter.readJson(value, elementPath);
-            }
-        }
-        return true;
+        return targetObject;
     }
 
 
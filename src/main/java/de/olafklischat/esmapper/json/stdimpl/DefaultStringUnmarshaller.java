@@ -3,13 +3,21 @@ package de.olafklischat.esmapper.json.stdimpl;
 import java.io.IOException;
 
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import de.olafklischat.esmapper.json.JsonConverter;
-import de.olafklischat.esmapper.json.JsonUnmarshaller;
+import de.olafklischat.esmapper.json.JsonStreamUnmarshaller;
 import de.olafklischat.esmapper.json.PropertyPath;
 
-public class DefaultStringUnmarshaller implements JsonUnmarshaller {
+public class DefaultStringUnmarshaller implements JsonStreamUnmarshaller {
+
+    @Override
+    public boolean handlesToken(JsonToken token) {
+        return token == JsonToken.STRING;
+    }
 
     @Override
     public boolean readJson(JsonElement r, PropertyPath targetPath,
@@ -25,4 +33,14 @@ public class DefaultStringUnmarshaller implements JsonUnmarshaller {
         return true;
     }
 
+    @Override
+    public boolean readJson(JsonObject header, JsonReader r, PropertyPath targetPath,
+            JsonConverter converter) throws IOException {
+        if (r.peek() != JsonToken.STRING) {
+            return false;
+        }
+        targetPath.set(r.nextString());
+        return true;
+    }
+
 }
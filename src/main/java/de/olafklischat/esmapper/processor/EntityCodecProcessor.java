@@ -0,0 +1,429 @@
+package de.olafklischat.esmapper.processor;
+
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import de.olafklischat.esmapper.EntityCodec;
+import de.olafklischat.esmapper.json.BeanCodec;
+
+/**
+ * Annotation processor that generates an {@link EntityCodec} named
+ * <code>&lt;EntityClass&gt;{@value BeanCodec#CLASS_SUFFIX}</code> for every
+ * class annotated with {@link javax.persistence.Entity}, which reads and
+ * writes the entity's properties with plain method calls. The codecs are
+ * picked up at runtime automatically; entity classes without one are
+ * accessed via reflection.
+ * <p>
+ * The processor is opt-in: it isn't registered in META-INF/services, so javac
+ * runs it only if it's named explicitly, with esmapper on the processor path:
+ * <pre>
+ * javac -processorpath esmapper.jar -processor de.olafklischat.esmapper.processor.EntityCodecProcessor ...
+ * </pre>
+ * (in Gradle, <code>options.annotationProcessorPath</code> and
+ * <code>options.compilerArgs += ['-processor', '...']</code> of the JavaCompile task).
+ * <p>
+ * Classes whose code can't be accessed from a codec in the same package
+ * (private or non-static nested classes, local classes) are skipped, as are
+ * auxiliary classes (non-public top-level classes in a source file named after
+ * another class, which javac warns about using from other files) and classes
+ * nested in them. So are non-public accessor methods (which the JavaBeans
+ * introspector ignores, too).
+ *
+ * @author olaf
+ */
+@SupportedAnnotationTypes("javax.persistence.Entity")
+public class EntityCodecProcessor extends AbstractProcessor {
+
+    private static final String ID = "javax.persistence.Id";
+    private static final String VERSION = "javax.persistence.Version";
+    private static final String LOADED_FLAG = "de.olafklischat.esmapper.annotations.LoadedFlag";
+
+    private static class Property {
+        final String name;
+        ExecutableElement getter;
+        TypeMirror getterType;
+        final List<ExecutableElement> setters = new ArrayList<ExecutableElement>();
+        final List<TypeMirror> setterTypes = new ArrayList<TypeMirror>();
+        ExecutableElement setter;
+        TypeMirror setterType;
+
+        Property(String name) {
+            this.name = name;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (e.getKind() != ElementKind.CLASS) {
+                    continue;
+                }
+                TypeElement type = (TypeElement) e;
+                if (!isAccessible(type) || !isInOwnSourceFile(outermostType(type))) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                            "no codec generated for inaccessible entity class " + type, type);
+                    continue;
+                }
+                try {
+                    generateCodec(type);
+                } catch (IOException ex) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "error generating codec for " + type + ": " + ex.getLocalizedMessage(), type);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAccessible(TypeElement type) {
+        for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (!(e instanceof TypeElement)) {
+                return false;
+            }
+            TypeElement te = (TypeElement) e;
+            if (te.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (te.getNestingKind() == NestingKind.MEMBER) {
+                if (!te.getModifiers().contains(Modifier.STATIC)) {
+                    return false;
+                }
+            } else if (te.getNestingKind() != NestingKind.TOP_LEVEL) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static TypeElement outermostType(TypeElement type) {
+        TypeElement result = type;
+        while (result.getNestingKind() == NestingKind.MEMBER) {
+            result = (TypeElement) result.getEnclosingElement();
+        }
+        return result;
+    }
+
+    /**
+     * @return false if the top-level class type is an auxiliary class, i.e. declared in
+     *         a source file named after another class, or if that can't be determined
+     */
+    private boolean isInOwnSourceFile(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.PUBLIC)) {
+            return true;  //javac requires that
+        }
+        //via reflection, com.sun.source isn't on the compile classpath of all JDKs
+        try {
+            ClassLoader cl = getClass().getClassLoader();
+            Class<?> trees = Class.forName("com.sun.source.util.Trees", false, cl);
+            Object instance = trees.getMethod("instance", ProcessingEnvironment.class).invoke(null, processingEnv);
+            Object path = trees.getMethod("getPath", Element.class).invoke(instance, type);
+            Object unit = Class.forName("com.sun.source.util.TreePath", false, cl).getMethod("getCompilationUnit").invoke(path);
+            JavaFileObject file = (JavaFileObject) Class.forName("com.sun.source.tree.CompilationUnitTree", false, cl)
+                    .getMethod("getSourceFile").invoke(unit);
+            return file.isNameCompatible(type.getSimpleName().toString(), JavaFileObject.Kind.SOURCE);
+        } catch (Exception | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Collect the properties of type like {@link Introspector} does, i.e. from
+     * public getters and setters (including inherited ones).
+     */
+    private Map<String, Property> getProperties(TypeElement type) {
+        DeclaredType declaredType = (DeclaredType) type.asType();
+        Map<String, Property> result = new LinkedHashMap<String, Property>();
+        for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+            if (member.getKind() != ElementKind.METHOD ||
+                    !member.getModifiers().contains(Modifier.PUBLIC) ||
+                    member.getModifiers().contains(Modifier.STATIC) ||
+                    ((TypeElement) member.getEnclosingElement()).getQualifiedName().contentEquals("java.lang.Object")) {
+                continue;
+            }
+            ExecutableElement m = (ExecutableElement) member;
+            ExecutableType mt = (ExecutableType) processingEnv.getTypeUtils().asMemberOf(declaredType, m);
+            String name = m.getSimpleName().toString();
+            int params = m.getParameters().size();
+            TypeMirror returnType = mt.getReturnType();
+            if (params == 0 && name.startsWith("get") && name.length() > 3 && returnType.getKind() != TypeKind.VOID) {
+                Property p = getProperty(result, name.substring(3));
+                if (p.getter == null) {  //isX() takes precedence
+                    p.getter = m;
+                    p.getterType = returnType;
+                }
+            } else if (params == 0 && name.startsWith("is") && name.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN) {
+                Property p = getProperty(result, name.substring(2));
+                p.getter = m;
+                p.getterType = returnType;
+            } else if (params == 1 && name.startsWith("set") && name.length() > 3 && returnType.getKind() == TypeKind.VOID) {
+                Property p = getProperty(result, name.substring(3));
+                p.setters.add(m);
+                p.setterTypes.add(mt.getParameterTypes().get(0));
+            }
+        }
+        for (Property p : result.values()) {
+            for (int i = 0; i < p.setters.size(); i++) {
+                TypeMirror t = p.setterTypes.get(i);
+                if (p.getter == null ? p.setters.size() == 1 :
+                        processingEnv.getTypeUtils().isSameType(erasure(t), erasure(p.getterType))) {
+                    p.setter = p.setters.get(i);
+                    p.setterType = t;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Property getProperty(Map<String, Property> properties, String capitalizedName) {
+        String name = Introspector.decapitalize(capitalizedName);
+        Property result = properties.get(name);
+        if (result == null) {
+            result = new Property(name);
+            properties.put(name, result);
+        }
+        return result;
+    }
+
+    private TypeMirror erasure(TypeMirror t) {
+        return processingEnv.getTypeUtils().erasure(t);
+    }
+
+    /**
+     * Name of the metadata property like EntityIntrospector determines it: the
+     * property with the annotation, or the one with the default name.
+     */
+    private static String getMetadataProperty(Map<String, Property> properties, String annotation, String defaultName) {
+        for (Property p : properties.values()) {
+            if (p.getter != null && hasAnnotation(p.getter, annotation)) {
+                return p.name;
+            }
+        }
+        return properties.containsKey(defaultName) && properties.get(defaultName).getter != null ? defaultName : null;
+    }
+
+    private static boolean hasAnnotation(Element e, String annotation) {
+        for (AnnotationMirror am : e.getAnnotationMirrors()) {
+            if (((TypeElement) am.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String literal(String s) {
+        return s == null ? "null" : "\"" + s + "\"";
+    }
+
+    private void generateCodec(TypeElement type) throws IOException {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String codecName = binaryName + BeanCodec.CLASS_SUFFIX;
+        String codecSimpleName = pkg.isUnnamed() ? codecName : codecName.substring(pkg.getQualifiedName().length() + 1);
+        String entityType = erasure(type.asType()).toString();
+        List<Property> properties = new ArrayList<Property>(getProperties(type).values());
+        Map<String, Property> byName = new LinkedHashMap<String, Property>();
+        for (Property p : properties) {
+            byName.put(p.name, p);
+        }
+        Set<TypeKind> narrowings = EnumSet.noneOf(TypeKind.class);
+
+        Writer w = processingEnv.getFiler().createSourceFile(codecName, type).openWriter();
+        PrintWriter out = new PrintWriter(w);
+        try {
+            if (!pkg.isUnnamed()) {
+                out.println("package " + pkg.getQualifiedName() + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated by " + getClass().getName() + ". Don't edit.");
+            out.println(" */");
+            out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("public final class " + codecSimpleName + " implements " + EntityCodec.class.getName() + "<" + entityType + "> {");
+            out.println();
+            out.print("    private static final String[] PROPERTIES = {");
+            for (int i = 0; i < properties.size(); i++) {
+                out.print((i > 0 ? ", " : "") + literal(properties.get(i).name));
+            }
+            out.println("};");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String[] getPropertyNames() {");
+            out.println("        return PROPERTIES.clone();");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String getIdProperty() {");
+            out.println("        return " + literal(getMetadataProperty(byName, ID, "id")) + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String getVersionProperty() {");
+            out.println("        return " + literal(getMetadataProperty(byName, VERSION, "version")) + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String getLoadedProperty() {");
+            out.println("        return " + literal(getMetadataProperty(byName, LOADED_FLAG, "loaded")) + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public boolean isReadable(int property) {");
+            printIndexCheck(out, properties, true);
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public boolean isWritable(int property) {");
+            printIndexCheck(out, properties, false);
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Object get(" + entityType + " bean, int property) {");
+            out.println("        switch (property) {");
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                if (p.getter != null) {
+                    out.println("        case " + i + ":");
+                    out.println("            return bean." + p.getter.getSimpleName() + "();");
+                }
+            }
+            out.println("        default:");
+            out.println("            throw new IllegalArgumentException(\"not a readable property: \" + property);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void set(" + entityType + " bean, int property, Object value) {");
+            out.println("        switch (property) {");
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                if (p.setter != null) {
+                    out.println("        case " + i + ":");
+                    out.println("            bean." + p.setter.getSimpleName() + "(" + convert(p.setterType, "value", narrowings) + ");");
+                    out.println("            return;");
+                }
+            }
+            out.println("        default:");
+            out.println("            throw new IllegalArgumentException(\"not a writable property: \" + property);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            for (TypeKind kind : narrowings) {
+                printNarrowing(out, kind);
+            }
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void printIndexCheck(PrintWriter out, List<Property> properties, boolean getters) {
+        List<Integer> indices = new ArrayList<Integer>();
+        for (int i = 0; i < properties.size(); i++) {
+            if ((getters ? properties.get(i).getter : properties.get(i).setter) != null) {
+                indices.add(i);
+            }
+        }
+        if (indices.isEmpty()) {
+            out.println("        return false;");
+            return;
+        }
+        out.println("        switch (property) {");
+        for (int i : indices) {
+            out.println("        case " + i + ":");
+        }
+        out.println("            return true;");
+        out.println("        default:");
+        out.println("            return false;");
+        out.println("        }");
+    }
+
+    /**
+     * @return expression converting the Object expression expr to type t. Boxed
+     *         numbers are converted to any numeric primitive type (Method#invoke
+     *         allows the widening conversions only), via a generated narrowing
+     *         method (added to narrowings) unless t is double.
+     */
+    private String convert(TypeMirror t, String expr, Set<TypeKind> narrowings) {
+        switch (t.getKind()) {
+        case BOOLEAN:
+            return "(Boolean) " + expr;
+        case CHAR:
+            return "(Character) " + expr;
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+        case FLOAT:
+            narrowings.add(t.getKind());
+            return narrowingMethod(t.getKind()) + "(" + expr + ")";
+        case DOUBLE:
+            return "((Number) " + expr + ").doubleValue()";
+        default:
+            return "(" + erasure(t) + ") " + expr;
+        }
+    }
+
+    private static String narrowingMethod(TypeKind kind) {
+        String type = kind.name().toLowerCase(Locale.ENGLISH);
+        return "to" + Character.toUpperCase(type.charAt(0)) + type.substring(1);
+    }
+
+    /**
+     * Print the method converting a boxed number to the primitive type kind. It
+     * throws an IllegalArgumentException rather than silently changing the value
+     * if the number isn't an integer in the type's range (for integral types) or
+     * is out of float's range.
+     */
+    private static void printNarrowing(PrintWriter out, TypeKind kind) {
+        String type = kind.name().toLowerCase(Locale.ENGLISH);
+        out.println("    private static " + type + " " + narrowingMethod(kind) + "(Object value) {");
+        out.println("        Number n = (Number) value;");
+        out.println("        " + type + " result = n." + type + "Value();");
+        if (kind == TypeKind.FLOAT) {
+            out.println("        if (Float.isInfinite(result) && !Double.isInfinite(n.doubleValue())) {");
+        } else {
+            out.println("        if (result != n.longValue() || n.doubleValue() != n.longValue()) {");
+        }
+        out.println("            throw new IllegalArgumentException(\"not representable as " + type + ": \" + value);");
+        out.println("        }");
+        out.println("        return result;");
+        out.println("    }");
+        out.println();
+    }
+
+}
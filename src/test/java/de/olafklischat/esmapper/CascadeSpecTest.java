@@ -0,0 +1,158 @@
+package de.olafklischat.esmapper;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.olafklischat.esmapper.json.PropertyPath;
+
+public class CascadeSpecTest {
+
+    private static PropertyPath root() {
+        return new PropertyPath(new PropertyPath.Node(TestCity.class), null);
+    }
+
+    private static PropertyPath prop(PropertyPath tail, String name, Object base) {
+        return new PropertyPath(new PropertyPath.Node(name, base), tail);
+    }
+
+    private static PropertyPath elem(PropertyPath tail, int index) {
+        return new PropertyPath(new PropertyPath.Node(index, new ArrayList<Object>()), tail);
+    }
+
+    private static PropertyPath mapValue(PropertyPath tail, String key) {
+        return new PropertyPath(new PropertyPath.Node(PropertyPath.Node.Type.MAP_VALUE, null, 0, key, new HashMap<String, Object>()), tail);
+    }
+
+    private static List<PropertyPath> paths() {
+        TestCity city = new TestCity();
+        TestPerson person = new TestPerson();
+        List<PropertyPath> result = new ArrayList<PropertyPath>();
+        PropertyPath sisters = prop(root(), "sisterCities", city);
+        result.add(prop(root(), "mayor", city));
+        result.add(prop(prop(root(), "mayor", city), "homeTown", person));
+        result.add(prop(prop(root(), "mayor", city), "nativeTown", person));
+        result.add(sisters);
+        for (int i = 0; i < 12; i++) {
+            result.add(elem(sisters, i));
+            result.add(prop(elem(sisters, i), "mayor", city));
+            result.add(elem(prop(elem(sisters, i), "sisterCities", city), 1));
+        }
+        result.add(mapValue(root(), "foo"));
+        result.add(mapValue(root(), "a.b"));
+        result.add(mapValue(sisters, "0"));
+        result.add(mapValue(sisters, "x]"));
+        return result;
+    }
+
+    private static void assertSameResults(CascadeSpec spec) {
+        CompiledCascadeSpec compiled = spec.compile();
+        for (PropertyPath path : paths()) {
+            String notation = path.getPathNotation();
+            CascadeSpec expected = spec.getEffectiveSubSpecFor(notation);
+            CascadeSpec actual = compiled.getEffectiveSubSpecFor(path);
+            assertEquals(notation, expected.isDefaultCascade(), actual.isDefaultCascade());
+            assertEquals(notation, expected.cascadesFor("mayor"), actual.cascadesFor("mayor"));
+            assertTrue(notation, actual == compiled.getEffectiveSubSpecFor(notation));
+        }
+    }
+
+    @Test
+    public void testCompiledMatchesUncompiled() {
+        assertSameResults(CascadeSpec.cascade());
+        assertSameResults(CascadeSpec.noCascade());
+        assertSameResults(CascadeSpec.cascade()
+                .subCascade("mayor", CascadeSpec.noCascade())
+                .subCascade("sisterCities\\[.*?\\]", CascadeSpec.noCascade().subCascade("mayor", CascadeSpec.cascade()))
+                .subCascade("sisterCities\\[3\\]", CascadeSpec.cascade())
+                .subCascade("sisterCities\\[1\\]\\.mayor", CascadeSpec.cascade())
+                .subCascade("mayor\\.homeTown", CascadeSpec.cascade()));
+        assertSameResults(CascadeSpec.noCascade()
+                .subCascade("sisterCities\\[.*\\]", CascadeSpec.cascade())
+                .subCascade("\\[.*?\\]", CascadeSpec.cascade())
+                .subCascade("sisterCities\\[0\\]", CascadeSpec.noCascade())
+                .subCascade("\\[a\\.b\\]", CascadeSpec.noCascade()));
+        //patterns that are matched as regular expressions, taking precedence over trie patterns or not
+        assertSameResults(CascadeSpec.cascade()
+                .subCascade("sisterCities\\[[0-9]\\]", CascadeSpec.noCascade())
+                .subCascade("sisterCities\\[1\\]", CascadeSpec.cascade())
+                .subCascade("may.r", CascadeSpec.noCascade())
+                .subCascade("sisterCities\\[x\\]\\]", CascadeSpec.noCascade()));
+    }
+
+    @Test
+    public void testCyclicSpec() {
+        CascadeSpec spec = CascadeSpec.noCascade();
+        spec.subCascade("sisterCities\\[.*?\\]", spec);
+        spec.subCascade("mayor", CascadeSpec.cascade());
+        CompiledCascadeSpec compiled = spec.compile();
+        PropertyPath sister = elem(prop(root(), "sisterCities", new TestCity()), 2);
+        assertTrue(compiled.getEffectiveSubSpecFor(sister) == compiled);
+        assertTrue(compiled.cascadesFor("mayor"));
+        assertFalse(compiled.cascadesFor("sisterCities"));
+    }
+
+    @Test
+    public void testFetchPlan() {
+        TestCity city = new TestCity();
+        PropertyPath sisters = prop(root(), "sisterCities", city);
+        PropertyPath mayor = prop(root(), "mayor", city);
+        PropertyPath nativeTown = prop(mayor, "nativeTown", new TestPerson());
+        for (CascadeSpec spec : new CascadeSpec[] {CascadeSpec.fetchPlan(), CascadeSpec.fetchPlan().compile()}) {
+            CascadeSpec mayorSpec = spec.getEffectiveSubSpecFor(mayor);
+            assertTrue(mayorSpec.isDefaultCascade());
+            assertTrue(mayorSpec.isFetchPlan());
+            assertFalse(mayorSpec.getEffectiveSubSpecFor(nativeTown).isDefaultCascade());
+            CascadeSpec sisterSpec = spec.getEffectiveSubSpecFor(elem(sisters, 0));
+            assertTrue(sisterSpec.isDefaultCascade());
+            //maxDepth reached
+            assertFalse(sisterSpec.getEffectiveSubSpecFor(mayor).isDefaultCascade());
+            assertFalse(sisterSpec.getEffectiveSubSpecFor(elem(sisters, 1)).isDefaultCascade());
+            //unannotated
+            assertFalse(spec.getEffectiveSubSpecFor(prop(root(), "name", city)).isDefaultCascade());
+        }
+        //explicit sub-specs and the default cascade take precedence over / fill in for the annotations
+        CascadeSpec spec = CascadeSpec.fetchPlan().subCascade("mayor", CascadeSpec.noCascade());
+        spec.setCascade(true);
+        assertFalse(spec.compile().getEffectiveSubSpecFor(mayor).isDefaultCascade());
+        assertTrue(spec.compile().getEffectiveSubSpecFor(prop(root(), "name", city)).isDefaultCascade());
+        assertFalse(spec.compile().getEffectiveSubSpecFor(nativeTown).isDefaultCascade());
+    }
+
+    @Test
+    public void testCompileCaching() {
+        CascadeSpec spec = CascadeSpec.cascade().subCascade("mayor", CascadeSpec.noCascade());
+        CompiledCascadeSpec compiled = spec.compile();
+        assertTrue(compiled == spec.compile());
+        assertTrue(compiled == compiled.compile());
+        try {
+            compiled.subCascade("name", CascadeSpec.cascade());
+            fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        spec.subCascade("mayor", CascadeSpec.cascade());
+        assertFalse(compiled.cascadesFor("mayor"));
+        assertTrue(spec.compile().cascadesFor("mayor"));
+    }
+
+    @Test
+    public void testCompileCachingPerSpec() {
+        CascadeSpec mayorSpec = CascadeSpec.noCascade();
+        CascadeSpec spec = CascadeSpec.cascade().subCascade("mayor", mayorSpec);
+        CompiledCascadeSpec compiled = spec.compile();
+        CascadeSpec.cascade().setCascade(false);
+        new CascadeSpec().subCascade("mayor", CascadeSpec.cascade());
+        assertTrue(compiled == spec.compile());
+        mayorSpec.subCascade("homeTown", CascadeSpec.cascade());
+        CompiledCascadeSpec recompiled = spec.compile();
+        assertFalse(compiled == recompiled);
+        assertTrue(recompiled.getEffectiveSubSpecFor("mayor").cascadesFor("homeTown"));
+        assertTrue(recompiled == spec.compile());
+    }
+
+}
@@ -9,6 +9,8 @@ import javax.persistence.Version;
 import org.junit.Test;
 
 import de.olafklischat.esmapper.annotations.LoadedFlag;
+import de.olafklischat.esmapper.json.BeanCodec;
+import de.olafklischat.esmapper.json.PropertyAccessor;
 
 @Entity
 class BeanAllPropsNoAnns {
@@ -119,6 +121,36 @@ class BeanOnlyId {
 
 public class EntityIntrospectorTest {
 
+    //nested, so the EntityCodecProcessor generates a codec for it (it skips auxiliary classes like the above)
+    @Entity
+    static class CodecBean {
+        private String realId;
+        private Long realVersion;
+        private boolean realLoaded = false;
+
+        @Id
+        public String getRealId() {
+            return realId;
+        }
+        public void setRealId(String realId) {
+            this.realId = realId;
+        }
+        @Version
+        public Long getRealVersion() {
+            return realVersion;
+        }
+        public void setRealVersion(Long realVersion) {
+            this.realVersion = realVersion;
+        }
+        @LoadedFlag
+        public boolean isRealLoaded() {
+            return realLoaded;
+        }
+        public void setRealLoaded(boolean realLoaded) {
+            this.realLoaded = realLoaded;
+        }
+    }
+
     @Test
     public void testDefaultId() {
         BeanAllPropsNoAnns ent = new BeanAllPropsNoAnns();
@@ -247,4 +279,46 @@ public class EntityIntrospectorTest {
         assertFalse(EntityIntrospector.supportsVersion(ent));
         assertFalse(EntityIntrospector.supportsLoadedFlag(ent));
     }
+
+    @Test
+    public void testGeneratedCodec() throws Exception {
+        //generated by the EntityCodecProcessor when compiling the test sources
+        BeanCodec<Object> codec = PropertyAccessor.getCodec(CodecBean.class);
+        assertTrue(codec instanceof EntityCodec);
+        EntityCodec<?> ec = (EntityCodec<?>) codec;
+        assertEquals("realId", ec.getIdProperty());
+        assertEquals("realVersion", ec.getVersionProperty());
+        assertEquals("realLoaded", ec.getLoadedProperty());
+        assertEquals("id", ((EntityCodec<?>) PropertyAccessor.getCodec(TestCity.class)).getIdProperty());
+        //auxiliary classes, skipped
+        assertNull(PropertyAccessor.getCodec(BeanAllPropsAnns.class));
+        assertNull(PropertyAccessor.getCodec(BeanOnlyId.class));
+
+        TestPerson person = new TestPerson("paul", 65, "nice guy");
+        PropertyAccessor age = PropertyAccessor.of(TestPerson.class, "age");
+        assertEquals(65, age.get(person));
+        age.set(person, 66);
+        assertEquals(66, person.getAge());
+        age.set(person, 67L);
+        assertEquals(67, person.getAge());
+        //no silent narrowing
+        for (Number n : new Number[] {1L << 32, 67.5, Double.NaN}) {
+            try {
+                age.set(person, n);
+                fail("IllegalArgumentException expected for " + n);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+        assertEquals(67, person.getAge());
+        age.set(person, 68.0);
+        assertEquals(68, person.getAge());
+        assertTrue(PropertyAccessor.of(TestPerson.class, "class").isReadable());
+        assertFalse(PropertyAccessor.of(TestPerson.class, "class").isWritable());
+        assertEquals(TestPerson.class, PropertyAccessor.of(TestPerson.class, "class").get(person));
+
+        //no codec, accessed via reflection
+        assertNull(PropertyAccessor.getCodec(String.class));
+        assertEquals(Boolean.FALSE, PropertyAccessor.of(String.class, "empty").get("abc"));
+    }
 }
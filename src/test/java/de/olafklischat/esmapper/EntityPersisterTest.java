@@ -7,13 +7,27 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.Node;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -472,6 +486,84 @@ public class EntityPersisterTest {
         assertFalse(itAll.hasNext());
     }
     
+    @Test
+    public void testLoadMultipleChunked() {
+        TestObjectGraph g = new TestObjectGraph();
+        List<TestPerson> persons = new ArrayList<TestPerson>();
+        for (int i = 0; i < 25; i++) {
+            TestPerson p = new TestPerson("person" + i, i, "");
+            p.setHomeTown(i % 2 == 0 ? g.liv : g.brm);
+            persons.add(p);
+        }
+        ep.persist(g.paul, CascadeSpec.cascade());
+        ep.persist(CascadeSpec.cascade(), persons.toArray());
+        ep.setMaxMultiGetSize(4);
+
+        String[] ids = new String[27];
+        for (int i = 0; i < 25; i++) {
+            ids[i] = persons.get(24 - i).getId();
+        }
+        ids[25] = "xxx-doesnt-exist-xxx";
+        ids[26] = g.paul.getId();
+        Map<String, TestPerson> readback = ep.findById(TestPerson.class, CascadeSpec.cascade(), ids);
+        assertEquals(27, readback.size());
+        Iterator<Map.Entry<String, TestPerson>> it = readback.entrySet().iterator();
+        for (int i = 0; i < 25; i++) {
+            Map.Entry<String, TestPerson> en = it.next();
+            assertEquals(ids[i], en.getKey());
+            assertEqualsIncludingId(persons.get(24 - i), en.getValue());
+            assertLoaded(en.getValue().getHomeTown());
+        }
+        assertTrue(readback.get(persons.get(0).getId()).getHomeTown() == readback.get(persons.get(2).getId()).getHomeTown());
+        assertTrue(readback.containsKey("xxx-doesnt-exist-xxx"));
+        assertNull(readback.get("xxx-doesnt-exist-xxx"));
+        TestPerson paul2 = readback.get(g.paul.getId());
+        assertEqualsIncludingId(g.paul, paul2);
+        assertTrue(paul2.getHomeTown() == readback.get(persons.get(0).getId()).getHomeTown());
+
+        TestPerson[] stubs = new TestPerson[25];
+        for (int i = 0; i < 25; i++) {
+            stubs[i] = new TestPerson();
+            stubs[i].setId(persons.get(i).getId());
+        }
+        ep.load(CascadeSpec.noCascade(), (Object[]) stubs);
+        for (int i = 0; i < 25; i++) {
+            assertEqualsIncludingId(persons.get(i), stubs[i]);
+            assertIsStub(stubs[i].getHomeTown());
+        }
+
+        TestPerson missing = new TestPerson();
+        missing.setId("xxx-doesnt-exist-xxx");
+        TestPerson john2 = new TestPerson();
+        john2.setId(g.john.getId());
+        try {
+            ep.load(CascadeSpec.noCascade(), john2, missing);
+            fail("EntityNotFoundException expected.");
+        } catch (EntityNotFoundException e) {
+            //expected
+        }
+        assertEqualsIncludingId(g.john, john2);
+    }
+
+    @Test
+    public void testUntypedFind() {
+        TestObjectGraph g = new TestObjectGraph();
+        ep.persist(g.paul, CascadeSpec.cascade());
+
+        //entity classes known from persisting
+        TestPerson paul2 = (TestPerson) ep.findById(g.paul.getId(), CascadeSpec.cascade());
+        assertEqualsIncludingId(g.paul, paul2);
+        assertEquals(g.liv, paul2.getHomeTown());
+        assertLoaded(paul2.getHomeTown().getMayor());
+
+        //entity classes read from the documents
+        EntityPersister ep2 = new EntityPersister(esClient.client(), "testindex");
+        TestCity liv2 = (TestCity) ep2.findById(g.liv.getId(), CascadeSpec.noCascade());
+        assertEqualsIncludingId(g.liv, liv2);
+        assertIsStub(liv2.getMayor());
+        assertNull(ep2.findById("xxx-doesnt-exist-xxx", CascadeSpec.noCascade()));
+    }
+
     @Test
     public void testCascadeAllListElements() {
         TestObjectGraph g = new TestObjectGraph();
@@ -600,6 +692,788 @@ public class EntityPersisterTest {
         assertNull(bri2);
     }
 
+    @Test
+    public void testBulkStoreLoadNestedRelationWithCycles() {
+        TestObjectGraph g = new TestObjectGraph();
+        TestPerson george = new TestPerson("george", 69, "one hit wonder");
+        george.setHomeTown(g.liv);
+
+        ep.setBulkWrites(true);
+        ep.setMaxBulkActions(2);  //force multiple bulk requests
+        ep.persist(CascadeSpec.cascade(), g.paul, george);
+
+        assertLoaded(g.paul);
+        assertLoaded(george);
+        assertLoaded(g.john);
+        assertLoaded(g.liv);
+        assertLoaded(g.ldn);
+        assertLoaded(g.mch);
+        assertLoaded(g.brm);
+        assertEquals(new Long(1), g.liv.getVersion());
+
+        TestPerson george2 = ep.findById(george.getId(), TestPerson.class, CascadeSpec.cascade());
+        assertEqualsIncludingId(george, george2);
+        TestCity liv2 = george2.getHomeTown();
+        assertEqualsIncludingId(g.liv, liv2);
+        assertEqualsIncludingId(g.john, liv2.getMayor());
+        assertTrue(liv2 == liv2.getSisterCities().get(1).getSisterCities().get(0));
+
+        g.liv.setName("Liverpool2");
+        ep.persist(g.liv, CascadeSpec.noCascade());
+        assertEquals(new Long(2), g.liv.getVersion());
+        assertEquals("Liverpool2", ep.findById(g.liv.getId(), TestCity.class).getName());
+    }
+
+    @Test
+    public void testPersistMultipleReachedByCascade() {
+        //city is reached by cascade from person before it's persisted as a root itself
+        for (boolean bulk : new boolean[] {false, true}) {
+            ep.setBulkWrites(bulk);
+            TestCity city = new TestCity("Leeds", 4711);
+            TestPerson person = new TestPerson("hans", 42, "foo");
+            person.setHomeTown(city);
+            ep.persist(CascadeSpec.cascade(), person, city);
+            assertLoaded(person);
+            assertLoaded(city);
+            //written once
+            assertEquals(new Long(1), city.getVersion());
+            assertEquals(new Long(1), person.getVersion());
+            TestPerson person2 = ep.findById(person.getId(), TestPerson.class, CascadeSpec.cascade());
+            assertEqualsIncludingId(city, person2.getHomeTown());
+        }
+    }
+
+    @Test
+    public void testBulkVersionConflict() {
+        TestPerson p1 = new TestPerson("hans", 42, "foo");
+        TestPerson p2 = new TestPerson("hugo", 43, "bar");
+        ep.setBulkWrites(true);
+        ep.persist(CascadeSpec.cascade(), p1, p2);
+        assertEquals(new Long(1), p1.getVersion());
+        assertEquals(new Long(1), p2.getVersion());
+
+        p1.setAge(50);
+        p2.setAge(51);
+        p2.setVersion(7L);  //not the in-db version
+        try {
+            ep.persist(CascadeSpec.cascade(), p1, p2);
+            fail("BulkPersistException expected");
+        } catch (BulkPersistException e) {
+            assertEquals(1, e.getFailures().size());
+            assertTrue(e.getFailures().get(0).getEntity() == p2);
+            assertTrue(e.getFailures().get(0).getCause() instanceof VersionConflictException);
+        }
+        //p1 must have been written nonetheless
+        assertEquals(new Long(2), p1.getVersion());
+        assertEquals(50, ep.findById(p1.getId(), TestPerson.class).getAge());
+        assertEquals(43, ep.findById(p2.getId(), TestPerson.class).getAge());
+    }
+
+    @Test
+    public void testAsyncStoreLoadNestedRelationWithCycles() throws Exception {
+        TestObjectGraph g = new TestObjectGraph();
+
+        ListenableActionFuture<TestPerson> persisted = ep.persistAsync(g.paul, CascadeSpec.cascade());
+        assertTrue(g.paul == persisted.get());
+        assertLoaded(g.paul);
+        assertLoaded(g.john);
+        assertLoaded(g.liv);
+        assertLoaded(g.ldn);
+        assertLoaded(g.mch);
+        assertLoaded(g.brm);
+
+        TestPerson paul2 = ep.findByIdAsync(g.paul.getId(), TestPerson.class, CascadeSpec.cascade()).get();
+        assertEqualsIncludingId(g.paul, paul2);
+        TestCity liv2 = paul2.getHomeTown();
+        assertEqualsIncludingId(g.liv, liv2);
+        assertLoaded(liv2);
+        assertEqualsIncludingId(g.john, liv2.getMayor());
+        assertEquals(g.ldn, liv2.getSisterCities().get(0));
+        assertEquals(g.mch, liv2.getSisterCities().get(1));
+        assertTrue(liv2 == liv2.getSisterCities().get(1).getSisterCities().get(0));
+        assertTrue(paul2.getNativeTown().getSisterCities().get(0) == liv2.getSisterCities().get(0)); //ldn
+
+        TestCity mch3 = new TestCity();
+        mch3.setId(g.mch.getId());
+        assertTrue(mch3 == ep.loadAsync(mch3, CascadeSpec.noCascade()).get());
+        assertEqualsIncludingId(g.mch, mch3);
+        assertIsStub(mch3.getSisterCities().get(0));
+
+        assertNull(ep.findByIdAsync("xxx-doesnt-exist-xxx", TestPerson.class).get());
+        TestCity notExisting = new TestCity();
+        notExisting.setId("xxx-doesnt-exist-xxx");
+        try {
+            ep.loadAsync(notExisting).get();
+            fail("EntityNotFoundException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EntityNotFoundException);
+        }
+    }
+
+    @Test
+    public void testAsyncPersistDoesntWaitForCascades() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        //holds back the cascades until released
+        ep.setCascadeExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        command.run();
+                    }
+                });
+            }
+        });
+        try {
+            TestObjectGraph g = new TestObjectGraph();
+            ListenableActionFuture<TestPerson> persisted = ep.persistAsync(g.paul, CascadeSpec.cascade());
+            assertFalse(persisted.isDone());
+            release.countDown();
+            assertTrue(g.paul == persisted.get(10, TimeUnit.SECONDS));
+            assertLoaded(g.paul);
+            assertLoaded(g.brm);
+            assertEquals(new Long(1), g.liv.getVersion());
+            assertEqualsIncludingId(g.john, ep.findById(g.liv.getId(), TestCity.class, CascadeSpec.cascade()).getMayor());
+
+            //cascade failures are reported
+            g.mch.setVersion(null);  //invalid
+            try {
+                ep.persistAsync(g.paul, CascadeSpec.cascade()).get(10, TimeUnit.SECONDS);
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDirtyCheckingSkipsUnchangedCascadedEntities() {
+        ep.setDirtyChecking(true);
+        TestObjectGraph g = new TestObjectGraph();
+        ep.persist(g.paul, CascadeSpec.cascade());
+        assertEquals(new Long(1), g.liv.getVersion());
+        assertEquals(new Long(1), g.john.getVersion());
+
+        //persisted entities: only the modified cascaded entity (john) should be rewritten
+        g.john.setName("john2");
+        ep.persist(g.paul, CascadeSpec.cascade());
+        assertEquals(new Long(2), g.paul.getVersion());  //root entity is always written
+        assertEquals(new Long(2), g.john.getVersion());
+        assertEquals(new Long(1), g.liv.getVersion());
+        assertEquals(new Long(1), g.ldn.getVersion());
+        assertEquals(new Long(1), g.brm.getVersion());
+
+        //loaded entities
+        TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        TestCity mch2 = paul2.getHomeTown().getSisterCities().get(1);
+        mch2.setPopulation(9013);
+        ep.persist(paul2, CascadeSpec.cascade());
+        assertEquals(new Long(3), paul2.getVersion());
+        assertEquals(new Long(2), mch2.getVersion());
+        assertEquals(new Long(1), paul2.getHomeTown().getVersion());
+        assertEquals(new Long(2), paul2.getHomeTown().getMayor().getVersion());
+        assertEquals(9013, ep.findById(g.mch.getId(), TestCity.class).getPopulation());
+
+        //without dirty checking, everything is written
+        ep.setDirtyChecking(false);
+        ep.persist(paul2, CascadeSpec.cascade());
+        assertEquals(new Long(2), paul2.getHomeTown().getVersion());
+    }
+
+    @Test
+    public void testPartialUpdates() {
+        ep.setPartialUpdates(true);
+        TestObjectGraph g = new TestObjectGraph();
+        ep.persist(g.paul, CascadeSpec.cascade());
+        assertEquals(new Long(1), g.paul.getVersion());
+
+        //unchanged entities aren't written, not even the root
+        ep.persist(g.paul, CascadeSpec.cascade());
+        assertEquals(new Long(1), g.paul.getVersion());
+        assertEquals(new Long(1), g.liv.getVersion());
+
+        //changed scalar and reference properties
+        g.paul.setAge(66);
+        g.paul.setNativeTown(g.mch);
+        g.liv.setSisterCities(Lists.newArrayList(g.mch));
+        ep.persist(g.paul, CascadeSpec.cascade());
+        assertEquals(new Long(2), g.paul.getVersion());
+        assertEquals(new Long(2), g.liv.getVersion());
+        assertEquals(new Long(1), g.john.getVersion());
+        assertEquals(new Long(1), g.mch.getVersion());
+
+        TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        assertEquals(new Long(2), paul2.getVersion());
+        assertEquals("paul", paul2.getName());
+        assertEquals(66, paul2.getAge());
+        assertEquals("nice guy", paul2.getComment());
+        assertEqualsIncludingId(g.mch, paul2.getNativeTown());
+        assertEquals(1, paul2.getHomeTown().getSisterCities().size());
+        assertEqualsIncludingId(g.mch, paul2.getHomeTown().getSisterCities().get(0));
+        assertEqualsIncludingId(g.john, paul2.getHomeTown().getMayor());
+
+        //loaded entities
+        paul2.setComment("still a nice guy");
+        ep.persist(paul2);
+        assertEquals(new Long(3), paul2.getVersion());
+        assertEquals("still a nice guy", ep.findById(g.paul.getId(), TestPerson.class).getComment());
+
+        //version checks are performed as usual
+        g.paul.setAge(67);
+        try {
+            ep.persist(g.paul);
+            fail("VersionConflictException expected.");
+        } catch (VersionConflictException ex) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testIdGenerators() {
+        TimeBasedIdGenerator gen = new TimeBasedIdGenerator();
+        String prev = gen.generateId(null);
+        for (int i = 0; i < 1000; i++) {
+            String id = gen.generateId(null);
+            assertEquals(20, id.length());
+            assertTrue(prev.compareTo(id) < 0);
+            prev = id;
+        }
+
+        ep.setIdGenerator(TestCity.class, new UuidIdGenerator());
+        TestObjectGraph g = new TestObjectGraph();
+        ep.persist(g.paul, CascadeSpec.cascade());
+        assertEquals(20, g.paul.getId().length());
+        assertEquals(36, g.liv.getId().length());
+        assertEquals(36, g.brm.getId().length());
+        assertFalse(g.paul.getId().equals(g.john.getId()));
+        assertEqualsIncludingId(g.paul, ep.findById(g.paul.getId(), TestPerson.class));
+    }
+
+    @Test
+    public void testParallelCascade() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ep.setCascadeExecutor(executor);
+        try {
+            TestObjectGraph g = new TestObjectGraph();
+            for (int i = 0; i < 200; i++) {
+                TestCity c = new TestCity("City" + i, i);
+                c.setSisterCities(Lists.newArrayList(g.liv, g.mch));  //cycles
+                g.liv.getSisterCities().add(c);
+            }
+            ep.persist(g.paul, CascadeSpec.cascade());
+
+            assertLoaded(g.paul);
+            assertLoaded(g.john);
+            for (TestCity c : g.liv.getSisterCities()) {
+                assertLoaded(c);
+                assertEquals(new Long(1), c.getVersion());
+            }
+
+            TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+            assertEquals(g.paul, paul2);
+            TestCity liv2 = paul2.getHomeTown();
+            assertEquals(202, liv2.getSisterCities().size());
+            for (int i = 0; i < 202; i++) {
+                assertEqualsIncludingId(g.liv.getSisterCities().get(i), liv2.getSisterCities().get(i));
+            }
+            assertTrue(liv2 == liv2.getSisterCities().get(150).getSisterCities().get(0));
+            assertEqualsIncludingId(g.john, liv2.getMayor());
+
+            //failures of sub-entities are reported
+            g.mch.setVersion(null);  //invalid
+            ExecutorService rejectingExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(1));  //will reject most tasks
+            ep.setCascadeExecutor(rejectingExecutor);
+            try {
+                ep.persist(g.paul, CascadeSpec.cascade());
+                fail("IllegalStateException expected.");
+            } catch (IllegalStateException ex) {
+                //expected
+            } finally {
+                rejectingExecutor.shutdown();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelCascadePersistMultiple() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ep.setCascadeExecutor(executor);
+        try {
+            //roots that are reachable by (concurrent) cascades from other roots
+            for (int i = 0; i < 30; i++) {
+                ep.setBulkWrites(i % 2 == 0);
+                TestObjectGraph g = new TestObjectGraph();
+                ep.persist(CascadeSpec.cascade(), g.paul, g.ldn, g.mch, g.john, g.liv, g.brm);
+                for (Object e : Arrays.asList(g.paul, g.john, g.liv, g.ldn, g.mch, g.brm)) {
+                    assertLoaded(e);
+                    assertEquals(new Long(1), EntityIntrospector.getVersion(e));
+                }
+                TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+                TestCity liv2 = paul2.getHomeTown();
+                assertEqualsIncludingId(g.liv, liv2);
+                assertEqualsIncludingId(g.john, liv2.getMayor());
+                assertEqualsIncludingId(g.ldn, liv2.getSisterCities().get(0));
+                assertTrue(liv2 == liv2.getSisterCities().get(1).getSisterCities().get(0));
+                assertEqualsIncludingId(g.brm, paul2.getNativeTown());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSession() {
+        TestObjectGraph g = new TestObjectGraph();
+        ep.persist(g.paul, CascadeSpec.cascade());
+
+        EntitySession session = ep.openSession();
+        TestPerson paul2 = session.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        assertTrue(paul2 == session.findById(g.paul.getId(), TestPerson.class));
+        assertTrue(paul2.getHomeTown() == session.findById(g.liv.getId(), TestCity.class));
+        TestPerson john2 = paul2.getHomeTown().getMayor();
+
+        //write-behind, coalesced
+        paul2.setAge(70);
+        session.persist(paul2, CascadeSpec.noCascade());
+        john2.setAge(71);
+        session.persist(john2, CascadeSpec.noCascade());
+        paul2.setComment("older guy");
+        session.persist(paul2, CascadeSpec.noCascade());
+        TestCity newCity = new TestCity("Leeds", 4711);
+        session.persist(newCity);
+        session.persist(newCity);
+        assertEquals(65, ep.findById(g.paul.getId(), TestPerson.class).getAge());
+        assertNull(newCity.getId());
+
+        session.flush();
+        assertEquals(new Long(2), paul2.getVersion());
+        assertEquals(new Long(2), john2.getVersion());
+        assertEquals(new Long(1), newCity.getVersion());
+        TestPerson paul3 = ep.findById(g.paul.getId(), TestPerson.class);
+        assertEquals(70, paul3.getAge());
+        assertEquals("older guy", paul3.getComment());
+        assertEquals(71, ep.findById(g.john.getId(), TestPerson.class).getAge());
+        assertTrue(newCity == session.findById(newCity.getId(), TestCity.class));
+
+        paul2.setAge(72);
+        session.persist(paul2);
+        session.close();
+        assertEquals(new Long(3), paul2.getVersion());
+        assertEquals(72, ep.findById(g.paul.getId(), TestPerson.class).getAge());
+        try {
+            session.findById(g.paul.getId(), TestPerson.class);
+            fail("IllegalStateException expected.");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testSessionFlushQueuedEntityReachedByCascade() {
+        //new city, queued after a person that cascades to it
+        EntitySession session = ep.openSession();
+        TestCity city = new TestCity("Leeds", 4711);
+        TestPerson person = new TestPerson("hans", 42, "foo");
+        person.setHomeTown(city);
+        session.persist(person);
+        session.persist(city);
+        session.flush();
+        assertLoaded(person);
+        assertLoaded(city);
+        assertEquals(new Long(1), city.getVersion());
+
+        //existing city
+        person.setAge(43);
+        city.setName("Leeds2");
+        session.persist(person);
+        session.persist(city);
+        session.flush();
+        assertEquals(new Long(2), person.getVersion());
+        assertEquals(new Long(2), city.getVersion());
+        session.close();
+        assertEquals("Leeds2", ep.findById(city.getId(), TestCity.class).getName());
+        assertEquals(43, ep.findById(person.getId(), TestPerson.class).getAge());
+    }
+
+    @Test
+    public void testIngest() {
+        List<TestPerson> persons = new ArrayList<TestPerson>();
+        for (int i = 0; i < 500; i++) {
+            TestPerson p = new TestPerson("person" + i, i % 100, "ingested");
+            p.setHomeTown(new TestCity("city" + i, i));
+            persons.add(p);
+        }
+        TestPerson invalid = new TestPerson("invalid", 1, "has an id, but no version");
+        invalid.setId("invalid-id");
+        persons.add(250, invalid);
+
+        IngestResult result = ep.ingest(persons, CascadeSpec.cascade(),
+                new IngestOptions().setConcurrency(3).setMaxBulkActions(50).setMaxBulksInFlight(2));
+        assertEquals(501, result.getEntityCount());
+        assertEquals(1000, result.getDocumentCount());
+        assertEquals(1, result.getFailureCount());
+        assertTrue(result.getFailures().get(0).getEntity() == invalid);
+        assertTrue(result.getBulkCount() >= 20);
+
+        for (TestPerson p : persons) {
+            if (p != invalid) {
+                assertLoaded(p);
+                assertEquals(new Long(1), p.getVersion());
+                assertLoaded(p.getHomeTown());
+            }
+        }
+        TestPerson p2 = ep.findById(persons.get(100).getId(), TestPerson.class, CascadeSpec.cascade());
+        assertEquals("person100", p2.getName());
+        assertEquals("city100", p2.getHomeTown().getName());
+    }
+
+    @Test
+    public void testIngestSharedSubEntity() {
+        TestCity city = new TestCity("Leeds", 4711);
+        List<TestPerson> persons = new ArrayList<TestPerson>();
+        for (int i = 0; i < 200; i++) {
+            TestPerson p = new TestPerson("person" + i, i % 100, "ingested");
+            p.setHomeTown(city);
+            persons.add(p);
+        }
+
+        IngestResult result = ep.ingest(persons, CascadeSpec.cascade(),
+                new IngestOptions().setConcurrency(4).setMaxBulkActions(20));
+        assertEquals(200, result.getEntityCount());
+        assertEquals(201, result.getDocumentCount());
+        assertEquals(0, result.getFailureCount());
+
+        assertLoaded(city);
+        assertEquals(new Long(1), city.getVersion());
+        for (TestPerson p : persons) {
+            assertLoaded(p);
+            assertEquals(new Long(1), p.getVersion());
+        }
+        TestPerson p2 = ep.findById(persons.get(150).getId(), TestPerson.class, CascadeSpec.cascade());
+        assertEqualsIncludingId(city, p2.getHomeTown());
+    }
+
+    @Test
+    public void testIngestDoesntRetainEntities() {
+        final List<WeakReference<TestCity>> cities = new ArrayList<WeakReference<TestCity>>();
+        final boolean[] collectedWhileIngesting = new boolean[1];
+        Iterator<TestPerson> persons = new Iterator<TestPerson>() {
+            private int i = 0;
+            @Override
+            public boolean hasNext() {
+                return i < 600;
+            }
+            @Override
+            public TestPerson next() {
+                if (i == 500) {
+                    //the first persons and their city have been written long ago
+                    for (int j = 0; j < 10 && cities.get(0).get() != null; j++) {
+                        System.gc();
+                    }
+                    collectedWhileIngesting[0] = cities.get(0).get() == null;
+                }
+                //each city is shared by two persons
+                if (i % 2 == 0) {
+                    cities.add(new WeakReference<TestCity>(new TestCity("city" + i, i)));
+                }
+                TestPerson p = new TestPerson("person" + i, i % 100, "ingested");
+                p.setHomeTown(cities.get(i / 2).get());
+                i++;
+                return p;
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        IngestResult result = ep.ingest(persons, CascadeSpec.cascade(),
+                new IngestOptions().setConcurrency(4).setMaxBulkActions(20));
+        assertEquals(600, result.getEntityCount());
+        assertEquals(900, result.getDocumentCount());
+        assertEquals(0, result.getFailureCount());
+        assertTrue(collectedWhileIngesting[0]);
+    }
+
+    @Test
+    public void testLoadWideRelationBreadthFirst() {
+        TestObjectGraph g = new TestObjectGraph();
+        for (int i = 0; i < 120; i++) {
+            TestCity c = new TestCity("City" + i, i);
+            c.setSisterCities(Lists.newArrayList(g.liv, g.ldn));
+            g.liv.getSisterCities().add(c);
+        }
+        ep.persist(g.paul, CascadeSpec.cascade());
+
+        ep.setMaxMultiGetSize(50);
+        TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        TestCity liv2 = paul2.getHomeTown();
+        assertLoaded(liv2);
+        assertEquals(122, liv2.getSisterCities().size());
+        for (int i = 0; i < 122; i++) {
+            TestCity c2 = liv2.getSisterCities().get(i);
+            assertLoaded(c2);
+            assertEqualsIncludingId(g.liv.getSisterCities().get(i), c2);
+            if (i > 0) {  //ldn has no sister cities
+                assertTrue(liv2 == c2.getSisterCities().get(0));
+            }
+        }
+        TestCity ldn2 = liv2.getSisterCities().get(0);
+        assertTrue(ldn2 == liv2.getSisterCities().get(100).getSisterCities().get(1));
+        assertTrue(ldn2 == paul2.getNativeTown().getSisterCities().get(0));
+        assertLoaded(liv2.getMayor());
+
+        //cascade specs are still honored
+        TestPerson paul3 = ep.findById(g.paul.getId(), TestPerson.class,
+                CascadeSpec.noCascade().subCascade("homeTown", CascadeSpec.cascade()));
+        assertLoaded(paul3.getHomeTown());
+        assertLoaded(paul3.getHomeTown().getSisterCities().get(5));
+        assertIsStub(paul3.getNativeTown());
+    }
+
+    @Test
+    public void testLazyLoading() {
+        TestObjectGraph g = new TestObjectGraph();
+        g.paul.setFavoritePlace(g.mch);
+        g.john.setFavoritePlace(g.ldn);
+        ep.persist(g.paul, CascadeSpec.cascade());
+
+        ep.setLazyLoading(true);
+        TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.noCascade());
+        TestPlace mch2 = paul2.getFavoritePlace();
+        assertFalse(mch2 instanceof TestCity);  //proxy
+        assertIsStub(paul2.getHomeTown());  //not declared as an interface
+        assertEquals(g.mch.getId(), mch2.getId());
+        TestCity mch2Entity = (TestCity) EntityPersister.unproxy(mch2);
+        assertIsStub(mch2Entity);
+
+        assertEquals("Manchester", mch2.getName());
+        assertEquals(9012, mch2.getPopulation());
+        assertLoaded(mch2Entity);
+        assertTrue(mch2Entity == EntityPersister.unproxy(mch2));
+        assertIsStub(mch2Entity.getSisterCities().get(0));
+
+        //proxies created by the same load are loaded together
+        Map<String, TestPerson> persons = ep.findById(TestPerson.class, CascadeSpec.noCascade(), g.paul.getId(), g.john.getId());
+        TestPlace mch3 = persons.get(g.paul.getId()).getFavoritePlace();
+        TestPlace ldn3 = persons.get(g.john.getId()).getFavoritePlace();
+        assertIsStub(EntityPersister.unproxy(ldn3));
+        assertEquals("Manchester", mch3.getName());
+        assertLoaded(EntityPersister.unproxy(ldn3));
+        assertEquals("London", ldn3.getName());
+
+        //no proxies for references to entities loaded by the same operation
+        TestCity liv2 = ep.findById(g.liv.getId(), TestCity.class, CascadeSpec.cascade());
+        assertLoaded(liv2.getSisterCities().get(0));
+        assertTrue(liv2.getMayor().getFavoritePlace() == liv2.getSisterCities().get(0));
+
+        //persisting doesn't load proxies
+        TestPerson paul3 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.noCascade());
+        paul3.setAge(66);
+        ep.persist(paul3, CascadeSpec.noCascade());
+        assertIsStub(EntityPersister.unproxy(paul3.getFavoritePlace()));
+        TestPerson paul4 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        assertEquals(66, paul4.getAge());
+        assertEqualsIncludingId(g.mch, paul4.getFavoritePlace());
+    }
+
+    @Test
+    public void testEntityCache() {
+        TestObjectGraph g = new TestObjectGraph();
+        ep.persist(g.paul, CascadeSpec.cascade());
+
+        DefaultEntityCache cache = new DefaultEntityCache(100, 1, TimeUnit.MINUTES, true);
+        ep.setEntityCache(cache);
+        TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        assertEquals(6, cache.size());
+        assertEquals(0, cache.getHitCount());
+
+        //modify a document behind the cache's back
+        esClient.client().prepareIndex("testindex", "TestCity", g.liv.getId())
+            .setSource("{\"name\":\"Liverpool Ltd.\",\"population\":1}").execute().actionGet();
+
+        //cascades are served from the cache as well, and every load returns new instances
+        TestPerson paul3 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        assertEquals("Liverpool", paul3.getHomeTown().getName());
+        assertEquals(paul2.getHomeTown(), paul3.getHomeTown());
+        assertFalse(paul2.getHomeTown() == paul3.getHomeTown());
+        assertFalse(paul2.getHomeTown().getSisterCities() == paul3.getHomeTown().getSisterCities());
+        assertEquals(6, cache.getHitCount());
+
+        //version conflicts evict the stale document
+        paul3.getHomeTown().setPopulation(54321);
+        try {
+            ep.persist(paul3.getHomeTown(), CascadeSpec.noCascade());
+            fail("VersionConflictException expected");
+        } catch (VersionConflictException e) {
+            //expected
+        }
+        TestCity liv4 = ep.findById(g.liv.getId(), TestCity.class, CascadeSpec.noCascade());
+        assertEquals("Liverpool Ltd.", liv4.getName());
+
+        //persisting updates the cached document and version
+        liv4.setPopulation(54321);
+        ep.persist(liv4, CascadeSpec.noCascade());
+        long hits = cache.getHitCount();
+        TestCity liv5 = ep.findById(g.liv.getId(), TestCity.class, CascadeSpec.noCascade());
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(54321, liv5.getPopulation());
+        assertEquals(liv4.getVersion(), liv5.getVersion());
+
+        //typed finds don't return cached documents of other types
+        assertNull(ep.findById(g.liv.getId(), TestPerson.class));
+
+        //negative caching
+        assertNull(ep.findById("cachetest-missing", TestCity.class));
+        esClient.client().prepareIndex("testindex", "TestCity", "cachetest-missing")
+            .setSource("{\"name\":\"Atlantis\",\"population\":0}").execute().actionGet();
+        assertNull(ep.findById("cachetest-missing", TestCity.class));
+        cache.invalidate("cachetest-missing");
+        assertEquals("Atlantis", ep.findById("cachetest-missing", TestCity.class).getName());
+
+        //writes of entities that aren't cached don't populate the cache
+        cache.clear();
+        TestCity brs = new TestCity("Bristol", 4567);
+        ep.persist(brs);
+        assertEquals(0, cache.size());
+
+        ep.setEntityCache(null);
+    }
+
+    @Test
+    public void testProjectionLoad() {
+        TestObjectGraph g = new TestObjectGraph();
+        ep.persist(g.paul, CascadeSpec.cascade());
+
+        TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, new HashSet<String>(Arrays.asList("name", "homeTown")));
+        assertEquals("paul", paul2.getName());
+        assertEquals(0, paul2.getAge());
+        assertNull(paul2.getComment());
+        assertNull(paul2.getNativeTown());
+        assertIsStub(paul2.getHomeTown());
+        assertEquals(g.liv.getId(), paul2.getHomeTown().getId());
+        assertEquals(g.paul.getVersion(), paul2.getVersion());
+        assertTrue(ep.isPartiallyLoaded(paul2));
+        assertFalse(paul2.isLoaded());
+
+        try {
+            ep.persist(paul2);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        //array indices are ignored
+        TestCity liv2 = ep.findById(g.liv.getId(), TestCity.class, new HashSet<String>(Arrays.asList("sisterCities[1]")));
+        assertNull(liv2.getName());
+        assertEquals(2, liv2.getSisterCities().size());
+        assertEquals(g.mch.getId(), liv2.getSisterCities().get(1).getId());
+
+        assertNull(ep.findById("xxx-doesnt-exist-xxx", TestCity.class, new HashSet<String>(Arrays.asList("name"))));
+
+        //loading fully clears the flag
+        ep.load(paul2, CascadeSpec.noCascade());
+        assertFalse(ep.isPartiallyLoaded(paul2));
+        assertLoaded(paul2);
+        assertEquals(g.paul, paul2);
+        paul2.setAge(66);
+        ep.persist(paul2, CascadeSpec.noCascade());
+        assertEquals(66, ep.findById(g.paul.getId(), TestPerson.class).getAge());
+    }
+
+    @Test
+    public void testFetchPlan() {
+        TestObjectGraph g = new TestObjectGraph();
+        TestPerson george = new TestPerson("george", 69, "one hit wonder");
+        g.ldn.setMayor(george);
+        ep.persist(g.paul, CascadeSpec.cascade());
+
+        //homeTown and mayor are EAGER, nativeTown is LAZY, sisterCities is EAGER up to depth 1
+        TestPerson paul2 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.fetchPlan());
+        TestCity liv2 = paul2.getHomeTown();
+        assertLoaded(liv2);
+        assertLoaded(liv2.getMayor());
+        assertIsStub(paul2.getNativeTown());
+        TestCity ldn2 = liv2.getSisterCities().get(0);
+        assertLoaded(ldn2);
+        assertLoaded(liv2.getSisterCities().get(1));
+        assertTrue(liv2 == liv2.getSisterCities().get(1).getSisterCities().get(0));
+        assertIsStub(ldn2.getMayor());
+
+        //explicit sub-specs override the annotations
+        TestPerson paul3 = ep.findById(g.paul.getId(), TestPerson.class,
+                CascadeSpec.fetchPlan().subCascade("nativeTown", CascadeSpec.cascade()));
+        assertLoaded(paul3.getNativeTown());
+        assertLoaded(paul3.getNativeTown().getSisterCities().get(0));
+        assertLoaded(paul3.getHomeTown().getMayor());
+
+        //global limits, regardless of the CascadeSpec
+        ep.setMaxLoadDepth(1);
+        TestPerson paul4 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        assertLoaded(paul4.getHomeTown());
+        assertLoaded(paul4.getNativeTown());
+        assertIsStub(paul4.getHomeTown().getMayor());
+        assertIsStub(paul4.getHomeTown().getSisterCities().get(0));
+        ep.setMaxLoadDepth(Integer.MAX_VALUE);
+
+        ep.setMaxLoadedEntities(1);
+        TestPerson paul5 = ep.findById(g.paul.getId(), TestPerson.class, CascadeSpec.cascade());
+        assertLoaded(paul5.getHomeTown());
+        assertIsStub(paul5.getNativeTown());
+        assertIsStub(paul5.getHomeTown().getMayor());
+        ep.setMaxLoadedEntities(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testStream() {
+        TestPerson mayor = new TestPerson("mayor", 50, "streamtest");
+        List<TestCity> cities = new ArrayList<TestCity>();
+        for (int i = 0; i < 25; i++) {
+            TestCity c = new TestCity("city" + i, 424242);
+            c.setMayor(mayor);
+            cities.add(c);
+        }
+        ep.persist(CascadeSpec.cascade(), cities.toArray());
+        esClient.client().admin().indices().prepareRefresh("testindex").execute().actionGet();
+
+        ep.setScrollPageSize(2);
+        EntityIterator<TestCity> it = ep.stream(QueryBuilders.termQuery("population", 424242), TestCity.class, CascadeSpec.cascade());
+        Set<String> names = new HashSet<String>();
+        while (it.hasNext()) {
+            TestCity c = it.next();
+            assertLoaded(c);
+            assertEquals(new Long(1), c.getVersion());
+            assertTrue(names.add(c.getName()));
+            assertLoaded(c.getMayor());
+            assertEquals(mayor, c.getMayor());
+        }
+        assertEquals(25, names.size());
+        assertTrue(names.contains("city24"));
+        assertFalse(it.hasNext());
+        it.close();
+
+        //closing early
+        it = ep.stream(QueryBuilders.termQuery("population", 424242), TestCity.class, CascadeSpec.noCascade());
+        assertTrue(it.hasNext());
+        assertIsStub(it.next().getMayor());
+        it.close();
+
+        it = ep.stream(QueryBuilders.termQuery("population", 4242421), TestCity.class, CascadeSpec.noCascade());
+        assertFalse(it.hasNext());
+    }
+
     @After
     public void tearDown() throws Exception {
         
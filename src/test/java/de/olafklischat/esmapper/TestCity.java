@@ -3,14 +3,16 @@ package de.olafklischat.esmapper;
 import java.util.List;
 
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.Version;
 
+import de.olafklischat.esmapper.annotations.Fetch;
 import de.olafklischat.esmapper.annotations.LoadedFlag;
 import de.olafklischat.esmapper.json.annotations.JsonIgnore;
 
 @Entity
-public class TestCity {
+public class TestCity implements TestPlace {
     private String name;
     private int population;
     private TestPerson mayor;
@@ -75,6 +77,7 @@ public class TestCity {
         this.population = population;
     }
     
+    @Fetch(FetchType.EAGER)
     public TestPerson getMayor() {
         return mayor;
     }
@@ -83,6 +86,7 @@ public class TestCity {
         this.mayor = mayor;
     }
     
+    @Fetch(value = FetchType.EAGER, maxDepth = 1, batchSize = 1)
     public List<TestCity> getSisterCities() {
         return sisterCities;
     }
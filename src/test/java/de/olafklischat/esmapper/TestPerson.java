@@ -1,9 +1,11 @@
 package de.olafklischat.esmapper;
 
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.Version;
 
+import de.olafklischat.esmapper.annotations.Fetch;
 import de.olafklischat.esmapper.annotations.LoadedFlag;
 
 
@@ -14,6 +16,7 @@ public class TestPerson {
     private String comment;
     private TestCity homeTown;
     private TestCity nativeTown;
+    private TestPlace favoritePlace;
     
     public static class AssociateRecord {
         private TestPerson associate;
@@ -131,18 +134,26 @@ public class TestPerson {
     public void setComment(String comment) {
         this.comment = comment;
     }
+    @Fetch(FetchType.EAGER)
     public TestCity getHomeTown() {
         return homeTown;
     }
     public void setHomeTown(TestCity homeTown) {
         this.homeTown = homeTown;
     }
+    @Fetch(FetchType.LAZY)
     public TestCity getNativeTown() {
         return nativeTown;
     }
     public void setNativeTown(TestCity nativeTown) {
         this.nativeTown = nativeTown;
     }
+    public TestPlace getFavoritePlace() {
+        return favoritePlace;
+    }
+    public void setFavoritePlace(TestPlace favoritePlace) {
+        this.favoritePlace = favoritePlace;
+    }
 
     @Override
     public int hashCode() {
@@ -0,0 +1,11 @@
+package de.olafklischat.esmapper;
+
+public interface TestPlace {
+
+    String getId();
+
+    String getName();
+
+    int getPopulation();
+
+}
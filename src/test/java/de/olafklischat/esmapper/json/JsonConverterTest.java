@@ -1,14 +1,20 @@
 package de.olafklischat.esmapper.json;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -20,14 +26,20 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
+import de.olafklischat.esmapper.json.annotations.ImplClass;
+import de.olafklischat.esmapper.json.annotations.JsonIgnore;
+
 public class JsonConverterTest {
 
     @Before
@@ -71,6 +83,18 @@ public class JsonConverterTest {
         assertEquals("{\"_mapClass\":\"java.util.LinkedHashMap\",\"name\":\"Hubertus\",\"age\":42,\"male\":true}", c.toJson(m));
     }
     
+    @Test
+    public void testWriteJsonToOutputStream() throws Exception {
+        JsonConverter c = new JsonConverter();
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("name", "J\u00fcrgen \u20ac");
+        m.put("age", 42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        c.writeJson(m, out);
+        assertEquals(c.toJson(m), new String(out.toByteArray(), "UTF-8"));
+        assertEquals(c.toJson(m).getBytes("UTF-8").length, out.size());
+    }
+
     @Test
     public void testWriteJsonObject() throws Exception {
         JsonConverter c = new JsonConverter();
@@ -366,6 +390,207 @@ public class JsonConverterTest {
         assertEquals("DaimlerChrysler,456,999", pJso2.get("producer").getAsString());
     }
 
+    @Test
+    public void testFrozenConverterContexts() {
+        JsonConverter c = new JsonConverter();
+        c.registerMarshaller(new TestOrgToStringMarshaller());
+        c.setAttribute("shared", "s");
+        c.freeze();
+        try {
+            c.registerUnmarshaller(new TestOrgFromStringUnmarshaller());
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        JsonConverter ctx1 = c.newContext();
+        JsonConverter ctx2 = c.newContext();
+        assertTrue(ctx1.isFrozen());
+        ctx1.setAttribute("op", 1);
+        ctx2.setAttribute("op", 2);
+        ctx2.setAttribute("shared", "t");
+        assertEquals(1, ctx1.getAttribute("op"));
+        assertEquals(2, ctx2.getAttribute("op"));
+        assertEquals("s", ctx1.getAttribute("shared"));
+        assertEquals("t", ctx2.getAttribute("shared"));
+        assertEquals("s", c.getAttribute("shared"));
+        assertNull(c.getAttribute("op"));
+
+        //contexts use the converter's marshallers
+        TestProduct p = new TestProduct("A-Class", 123, new String[]{"engine"}, new TestOrg("Mercedes", 456, 789));
+        JsonObject pJso = ctx1.toJsonElement(p).getAsJsonObject();
+        assertEquals("Mercedes,456,789", pJso.get("producer").getAsString());
+    }
+
+    @Test
+    public void testTypedDispatch() {
+        final List<Class<?>> typedCalls = new ArrayList<Class<?>>();
+        final List<String> untypedCalls = new ArrayList<String>();
+        JsonConverter c = new JsonConverter();
+        //later registrations are called first
+        c.registerMarshaller(new TestOrgToStringMarshaller());
+        c.registerMarshaller(new TypedJsonMarshaller() {
+            @Override
+            public boolean handlesType(Class<?> type) {
+                return type == TestOrg.class;
+            }
+            @Override
+            public boolean writeJson(PropertyPath sourcePath, JsonWriter out,
+                    JsonConverter context) throws IOException {
+                typedCalls.add(sourcePath.getNodeClass());
+                return false;
+            }
+        });
+        c.registerMarshaller(new JsonMarshaller() {
+            @Override
+            public boolean writeJson(PropertyPath sourcePath, JsonWriter out,
+                    JsonConverter context) throws IOException {
+                untypedCalls.add("first");
+                return false;
+            }
+        });
+        c.freeze();
+
+        TestProduct p = new TestProduct("A-Class", 123, new String[]{"engine"}, new TestOrg("Mercedes", 456, 789));
+        JsonObject pJso = c.toJsonElement(p).getAsJsonObject();
+        assertEquals("Mercedes,456,789", pJso.get("producer").getAsString());
+        //the typed marshaller only saw the TestOrg; the untyped one saw every value
+        assertEquals(1, typedCalls.size());
+        assertEquals(TestOrg.class, typedCalls.get(0));
+        assertTrue(untypedCalls.size() > 1);
+
+        final List<JsonToken> tokens = new ArrayList<JsonToken>();
+        JsonConverter c2 = new JsonConverter();
+        c2.registerUnmarshaller(new TestOrgFromStringUnmarshaller());
+        c2.registerUnmarshaller(new TypedJsonUnmarshaller() {
+            @Override
+            public boolean handlesToken(JsonToken token) {
+                return token == JsonToken.STRING;
+            }
+            @Override
+            public boolean readJson(JsonElement r, PropertyPath targetPath,
+                    JsonConverter context) throws IOException {
+                tokens.add(JsonToken.STRING);
+                return false;
+            }
+        });
+        TestProduct p2 = c2.fromJson(c.toJson(p), TestProduct.class);
+        assertEquals("Mercedes", p2.getProducer().getName());
+        //the typed unmarshaller only saw strings
+        assertFalse(tokens.isEmpty());
+        assertEquals(Collections.nCopies(tokens.size(), JsonToken.STRING), tokens);
+    }
+
+    @Test
+    public void testUnfrozenConverterChains() {
+        final List<Class<?>> dispatchedTypes = new ArrayList<Class<?>>();
+        JsonConverter c = new JsonConverter();
+        c.registerMarshaller(new TypedJsonMarshaller() {
+            @Override
+            public boolean handlesType(Class<?> type) {
+                dispatchedTypes.add(type);
+                return false;
+            }
+            @Override
+            public boolean writeJson(PropertyPath sourcePath, JsonWriter out,
+                    JsonConverter context) throws IOException {
+                return false;
+            }
+        });
+        TestOrg org = new TestOrg("Mercedes", 456, 789);
+        String json = c.toJson(org);
+        c.toJson(org);
+        //the chains are cached although the converter isn't frozen
+        assertEquals(new HashSet<Class<?>>(dispatchedTypes).size(), dispatchedTypes.size());
+        JsonConverter ctx = c.newContext();
+
+        //registering drops them
+        c.registerMarshaller(new TestOrgToStringMarshaller());
+        assertEquals("\"Mercedes,456,789\"", c.toJson(org));
+        //contexts keep the configuration from when they were created
+        assertEquals(json, ctx.toJson(org));
+    }
+
+    @Test
+    public void testStreamUnmarshalling() throws Exception {
+        TestOrg bmw = new TestOrg("BMW", 120000, 35000);
+        TestOrg merc = new TestOrg("Mercedes", 456, 789);
+        TestCountry ger = new TestCountry("Germany", 82000000, Lists.newArrayList(bmw, merc), null);
+        String json = "{_class:\"de.olafklischat.esmapper.json.TestCountry\"," +
+                "name: \"Germany\"," +
+                "population: 82000000," +
+                "companies: [{_class:\"de.olafklischat.esmapper.json.TestOrg\", name:\"BMW\", revenue:120000, nrOfEmployees:35000}," +
+                "            {_class:\"de.olafklischat.esmapper.json.TestOrg\", name:\"Mercedes\", revenue:456, nrOfEmployees:789}]}";
+
+        //stream unmarshallers see the objects' headers
+        final List<String> headerClasses = new ArrayList<String>();
+        final List<JsonElement> strings = new ArrayList<JsonElement>();
+        JsonConverter c = new JsonConverter();
+        c.registerUnmarshaller(new JsonStreamUnmarshaller() {
+            @Override
+            public boolean handlesToken(JsonToken token) {
+                return token == JsonToken.BEGIN_OBJECT;
+            }
+            @Override
+            public boolean readJson(JsonObject header, JsonReader source, PropertyPath targetPath,
+                    JsonConverter context) throws IOException {
+                headerClasses.add(header.get("_class").getAsString());
+                return false;
+            }
+            @Override
+            public boolean readJson(JsonElement source, PropertyPath targetPath,
+                    JsonConverter context) throws IOException {
+                fail("object materialized");
+                return false;
+            }
+        });
+        //a tree-based unmarshaller gets its elements parsed
+        c.registerUnmarshaller(new TypedJsonUnmarshaller() {
+            @Override
+            public boolean handlesToken(JsonToken token) {
+                return token == JsonToken.STRING;
+            }
+            @Override
+            public boolean readJson(JsonElement source, PropertyPath targetPath,
+                    JsonConverter context) throws IOException {
+                strings.add(source);
+                return false;
+            }
+        });
+
+        assertEquals(ger, c.fromJson(json));
+        assertEquals(ger, new JsonConverter().fromJson(new JsonParser().parse(json)));
+        assertEquals(Arrays.asList(TestCountry.class.getName(), TestOrg.class.getName(), TestOrg.class.getName()),
+                headerClasses);
+        assertEquals(Arrays.asList("Germany", "BMW", "Mercedes"), Lists.transform(strings, new Function<JsonElement, String>() {
+            @Override
+            public String apply(JsonElement input) {
+                return input.getAsString();
+            }
+        }));
+
+        TestCountry target = new TestCountry("defaultName", 123, null, null);
+        c.readJson(new StringReader(json), target);
+        assertEquals(ger, target);
+    }
+
+    @Test
+    public void testBeanPlan() {
+        BeanPlan plan = BeanPlan.of(TestCountry.class);
+        assertTrue(plan == BeanPlan.of(TestCountry.class));
+        assertEquals("de.olafklischat.esmapper.json.TestCountry", plan.getClassName());
+        List<String> names = new ArrayList<String>();
+        for (PropertyAccessor pa : plan.getMarshalledProperties()) {
+            names.add(pa.getName());
+        }
+        //no "class" and no @JsonIgnore properties
+        assertEquals(Arrays.asList("companies", "name", "population", "readOnly42"), names);
+        assertEquals("ignored", plan.getProperty("ignored").getName());
+        assertNotNull(plan.getProperty("ignored").getAnnotation(JsonIgnore.class));
+        assertEquals(LinkedList.class, plan.getProperty("companies").getAnnotation(ImplClass.class).value());
+        assertNull(plan.getProperty("nonexistent"));
+    }
+
     private static class TestOrgToStringMarshaller implements JsonMarshaller {
         @Override
         public boolean writeJson(PropertyPath sourcePath, JsonWriter out,